@@ -16,7 +16,6 @@
 
 package org.wso2.carbon.registry.handlers.uri;
 
-import org.apache.axiom.om.util.AXIOMUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.governance.api.generic.GenericArtifactManager;
@@ -30,21 +29,34 @@ import org.wso2.carbon.registry.core.utils.RegistryUtils;
 import org.wso2.carbon.registry.core.exceptions.RegistryException;
 import org.wso2.carbon.registry.extensions.utils.CommonConstants;
 import org.wso2.carbon.registry.extensions.utils.CommonUtil;
+import org.wso2.carbon.registry.handlers.uri.utils.ImportSession;
+import org.wso2.carbon.registry.handlers.uri.utils.UriArtifactManagers;
 import org.wso2.carbon.registry.handlers.uri.utils.UriConstants;
 
 import javax.xml.namespace.QName;
-import java.net.URL;
-import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ByteArrayOutputStream;
 import java.util.UUID;
 
-public class PolicyUriHandler extends Handler {
+public class PolicyUriHandler extends Handler implements UriImporter {
     private static final Log log = LogFactory.getLog(PolicyUriHandler.class);
-    private Registry systemGovernanceRegistry;
 
-    public PolicyUriHandler() throws RegistryException {
-        this.systemGovernanceRegistry = RegistryCoreServiceComponent.getRegistryService().getGovernanceSystemRegistry();
+    private static final long DEFAULT_MAX_POLICY_SIZE = 16L * 1024 * 1024;
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    static {
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private static long maxPolicySize = DEFAULT_MAX_POLICY_SIZE;
+
+    private volatile Registry systemGovernanceRegistry;
+
+    public static void setMaxPolicySize(long maxPolicySize) {
+        PolicyUriHandler.maxPolicySize = maxPolicySize;
     }
 
     public void importResource(RequestContext requestContext, String sourceURL) throws RegistryException {
@@ -52,25 +64,28 @@ public class PolicyUriHandler extends Handler {
             return;
         }
         CommonUtil.acquireUpdateLock();
+        ImportSession session = ImportSession.begin();
         try {
 
-            InputStream inputStream;
+            byte[] content;
             try {
                 if (sourceURL != null && sourceURL.toLowerCase().startsWith("file:")) {
                     String msg = "The source URL must not be file in the server's local file system";
                     throw new RegistryException(msg);
                 }
-                inputStream = new URL(sourceURL).openStream();
+                // the policy is rejected while it is being downloaded once it exceeds the limit.
+                content = session.getDocument(sourceURL, maxPolicySize).getContent();
             } catch (IOException e) {
                 throw new RegistryException("The URL " + sourceURL + " is incorrect.", e);
             }
-            addPolicyToRegistry(requestContext, inputStream, sourceURL);
+            addPolicyToRegistry(requestContext, content, sourceURL);
         } finally {
+            ImportSession.end();
             CommonUtil.releaseUpdateLock();
         }
     }
 
-    private void addPolicyToRegistry(RequestContext requestContext, InputStream inputStream, String sourceURL) throws RegistryException {
+    private void addPolicyToRegistry(RequestContext requestContext, byte[] content, String sourceURL) throws RegistryException {
         Resource policyResource;
         if (requestContext.getResource() == null) {
             policyResource = new ResourceImpl();
@@ -79,23 +94,13 @@ public class PolicyUriHandler extends Handler {
             policyResource = requestContext.getResource();
         }
         Registry registry = requestContext.getRegistry();
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        int nextChar;
-        try {
-            while ((nextChar = inputStream.read()) != -1) {
-                outputStream.write(nextChar);
-            }
-            outputStream.flush();
-        } catch (IOException e) {
-            throw new RegistryException("Exception occured while reading policy content", e);
-        }
-        policyResource.setContent(outputStream.toByteArray());
-
-        try {
-            AXIOMUtil.stringToOM(new String(outputStream.toByteArray()));   
-        } catch (Exception e) {
-            throw new RegistryException("The given policy file does not contain valid XML.");
+        if (content.length > maxPolicySize) {
+            throw new RegistryException("The policy at " + sourceURL + " exceeds the maximum size of " +
+                    maxPolicySize + " bytes");
         }
+        checkWellFormed(content);
+        // the buffer of the import session is handed over as is, the content is not copied again.
+        policyResource.setContent(content);
 
         String resourcePath = requestContext.getResourcePath().getPath();
         String policyFileName = resourcePath.substring(resourcePath.lastIndexOf(RegistryConstants.PATH_SEPARATOR) + 1);
@@ -113,9 +118,8 @@ public class PolicyUriHandler extends Handler {
             policyId = UUID.randomUUID().toString();
             policyResource.setProperty(CommonConstants.ARTIFACT_ID_PROP_KEY, policyId);
         }
-        CommonUtil.addGovernanceArtifactEntryWithAbsoluteValues(
-                    CommonUtil.getUnchrootedSystemRegistry(requestContext),
-                    policyId, policyPath);
+        ImportSession.getSession().addIndexEntryWithAbsolutePath(systemRegistry, policyId,
+                policyPath);
 
         String relativeArtifactPath = RegistryUtils.getRelativePath(registry.getRegistryContext(), policyPath);
         // adn then get the relative path to the GOVERNANCE_BASE_PATH
@@ -142,7 +146,8 @@ public class PolicyUriHandler extends Handler {
     protected void addPolicyToRegistry(RequestContext context, String path, String url,
                                        Resource resource, Registry registry) throws RegistryException {
         String source = getSource(url);
-        GenericArtifactManager genericArtifactManager = new GenericArtifactManager(systemGovernanceRegistry, "uri");
+        GenericArtifactManager genericArtifactManager =
+                UriArtifactManagers.getManager(getSystemGovernanceRegistry());
         GenericArtifact policy = genericArtifactManager.newGovernanceArtifact(new QName(source));
         policy.setAttribute("overview_name", source);
         policy.setAttribute("overview_uri", url);
@@ -150,6 +155,36 @@ public class PolicyUriHandler extends Handler {
         genericArtifactManager.addGenericArtifact(policy);
     }
 
+    /**
+     * Checks that the given content is well-formed XML by streaming through it, without building
+     * an object model.
+     *
+     * @param content the policy content.
+     * @throws RegistryException if the content is not well-formed.
+     */
+    private void checkWellFormed(byte[] content) throws RegistryException {
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(content));
+            try {
+                while (reader.hasNext()) {
+                    reader.next();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new RegistryException("The given policy file does not contain valid XML.", e);
+        }
+    }
+
+    // looked up on first use, as the registry service may not be available when the handler is created.
+    private Registry getSystemGovernanceRegistry() throws RegistryException {
+        if (systemGovernanceRegistry == null) {
+            systemGovernanceRegistry = RegistryCoreServiceComponent.getRegistryService().getGovernanceSystemRegistry();
+        }
+        return systemGovernanceRegistry;
+    }
+
     private String extractResourceFromURL(String policyURL, String suffix) {
         String resourceName = policyURL;
         if (policyURL.lastIndexOf("?") > 0) {
@@ -18,45 +18,68 @@ package org.wso2.carbon.registry.handlers.uri;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.xerces.xni.parser.XMLInputSource;
 import org.wso2.carbon.registry.core.*;
 import org.wso2.carbon.registry.core.config.RegistryContext;
 import org.wso2.carbon.registry.core.exceptions.RegistryException;
 import org.wso2.carbon.registry.core.jdbc.handlers.Handler;
 import org.wso2.carbon.registry.core.jdbc.handlers.RequestContext;
 import org.wso2.carbon.registry.core.utils.RegistryUtils;
-import org.wso2.carbon.registry.extensions.handlers.utils.SchemaValidator;
 import org.wso2.carbon.registry.extensions.utils.CommonUtil;
 import org.wso2.carbon.registry.extensions.utils.WSDLValidationInfo;
+import org.wso2.carbon.registry.handlers.uri.utils.DeferredValidation;
+import org.wso2.carbon.registry.handlers.uri.utils.ImportPrefetcher;
+import org.wso2.carbon.registry.handlers.uri.utils.ImportSession;
+import org.wso2.carbon.registry.handlers.uri.utils.SchemaGrammarValidator;
 import org.wso2.carbon.registry.handlers.uri.utils.SchemaProcessor;
 import org.wso2.carbon.registry.handlers.uri.utils.UriConstants;
+import org.wso2.carbon.registry.handlers.uri.utils.ValidationCache;
 
 import java.io.*;
 import java.util.*;
 
-public class SchemaUriHandler extends Handler {
+public class SchemaUriHandler extends Handler implements UriImporter {
     private static final Log log = LogFactory.getLog(SchemaUriHandler.class);
     private boolean disableSchemaValidation = false;
+    private boolean deferValidation = false;
 
     public void importResource(RequestContext requestContext, String sourceURL) throws RegistryException {
         if (!CommonUtil.isUpdateLockAvailable()) {
             return;
         }
         CommonUtil.acquireUpdateLock();
+        ImportSession session = ImportSession.begin();
         try {
             String resourcePath = requestContext.getResourcePath().getCompletePath();
 
             WSDLValidationInfo validationInfo = null;
+            DeferredValidation.Check deferredValidation = null;
             try {
                 if (!disableSchemaValidation) {
-                    validationInfo =
-                            SchemaValidator.validate(new XMLInputSource(null, sourceURL, null));
+                    // read the imported schemas first, so that they are part of the session digest
+                    ImportPrefetcher.prefetch(session, sourceURL);
+                    ValidationCache validationCache = ValidationCache.getInstance();
+                    validationInfo = validationCache.get(ValidationCache.SCHEMA_VALIDATOR,
+                            SchemaGrammarValidator.class, session, sourceURL);
+                    if (validationInfo == null && deferValidation) {
+                        deferredValidation = DeferredValidation.newSchemaCheck(session, sourceURL,
+                                validationCache.getKey(ValidationCache.SCHEMA_VALIDATOR,
+                                        SchemaGrammarValidator.class, session, sourceURL));
+                    } else if (validationInfo == null) {
+                        validationInfo = SchemaGrammarValidator.validate(session,
+                                session.getXMLInputSource(sourceURL));
+                        validationCache.put(ValidationCache.SCHEMA_VALIDATOR,
+                                SchemaGrammarValidator.class, session, sourceURL, validationInfo);
+                    }
                 }
             } catch (Exception e) {
                 throw new RegistryException("Exception occured while validating the schema", e);
             }
 
             String savedName = processSchemaImport(requestContext, resourcePath, validationInfo, sourceURL);
+            if (deferredValidation != null) {
+                DeferredValidation.submit(sourceURL, session.getArtifactPath(sourceURL),
+                        Collections.singletonList(deferredValidation));
+            }
 
             onPutCompleted(resourcePath,
                     Collections.singletonMap(sourceURL, savedName),
@@ -65,6 +88,7 @@ public class SchemaUriHandler extends Handler {
             requestContext.setActualPath(savedName);
             requestContext.setProcessingComplete(true);
         } finally {
+            ImportSession.end();
             CommonUtil.releaseUpdateLock();
         }
     }
@@ -137,4 +161,8 @@ public class SchemaUriHandler extends Handler {
         this.disableSchemaValidation = Boolean.toString(true).equals(disableSchemaValidation);
     }
 
+    public void setDeferValidation(String deferValidation) {
+        this.deferValidation = Boolean.toString(true).equals(deferValidation);
+    }
+
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri;
+
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+import org.wso2.carbon.registry.core.jdbc.handlers.RequestContext;
+
+/**
+ * Imports the document behind a URI artifact of a given type. A single instance of each importer
+ * is shared by all puts handled by the {@link UriMediaTypeHandler}, so implementations must be
+ * thread safe and must have a public no-argument constructor.
+ */
+public interface UriImporter {
+
+    /**
+     * Imports the document at the given URL.
+     *
+     * @param requestContext the request context of the put of the URI artifact.
+     * @param sourceURL      the URL of the document.
+     * @throws RegistryException if the import failed.
+     */
+    void importResource(RequestContext requestContext, String sourceURL) throws RegistryException;
+}
@@ -16,70 +16,576 @@
 
 package org.wso2.carbon.registry.handlers.uri;
 
-import org.apache.axiom.om.OMElement;
-import org.apache.axiom.om.impl.builder.StAXOMBuilder;
-import org.apache.axiom.om.xpath.AXIOMXPath;
-import org.jaxen.SimpleNamespaceContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.context.CarbonContext;
+import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.registry.core.exceptions.RegistryException;
 import org.wso2.carbon.registry.core.Registry;
 import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.ResourceImpl;
 import org.wso2.carbon.registry.core.jdbc.handlers.Handler;
 import org.wso2.carbon.registry.core.jdbc.handlers.RequestContext;
+import org.wso2.carbon.registry.extensions.utils.CommonUtil;
+import org.wso2.carbon.registry.handlers.uri.utils.ImportLocks;
+import org.wso2.carbon.registry.handlers.uri.utils.InFlightImports;
+import org.wso2.carbon.registry.handlers.uri.utils.ImportPrefetcher;
+import org.wso2.carbon.registry.handlers.uri.utils.ImportQueue;
+import org.wso2.carbon.registry.handlers.uri.utils.UriCatalog;
+import org.wso2.carbon.registry.handlers.uri.utils.ImportSession;
+import org.wso2.carbon.registry.handlers.uri.utils.ImportStatus;
+import org.wso2.carbon.registry.handlers.uri.utils.ParsedSchemaCache;
+import org.wso2.carbon.registry.handlers.uri.utils.RemoteDocument;
+import org.wso2.carbon.registry.handlers.uri.utils.SchemaGrammarPool;
 import org.wso2.carbon.registry.handlers.uri.utils.UriConstants;
+import org.wso2.carbon.registry.handlers.uri.utils.UriFetchCache;
+import org.wso2.carbon.registry.handlers.uri.utils.UriFetchClient;
+import org.wso2.carbon.registry.handlers.uri.utils.UriRefreshScheduler;
+import org.wso2.carbon.registry.handlers.uri.utils.ValidationCache;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.ByteArrayInputStream;
-import java.util.Iterator;
+import java.io.StringReader;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 public class UriMediaTypeHandler extends Handler{
+    private static final Log log = LogFactory.getLog(UriMediaTypeHandler.class);
+
+    private static final String OVERVIEW_ELEMENT = "overview";
+    private static final String URI_ELEMENT = "uri";
+    private static final String TYPE_ELEMENT = "type";
+
+    private static final int MAX_PENDING_CHECKS = 30;
+    private static final long PENDING_CHECK_DELAY = 1000;
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    static {
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private Map<String, UriImporter> importers = new HashMap<String, UriImporter>();
+    private boolean asyncImport = false;
+
+    public UriMediaTypeHandler() {
+        importers.put(UriConstants.WSDL, new WsdlUriHandler());
+        importers.put(UriConstants.XSD, new SchemaUriHandler());
+        importers.put(UriConstants.POLICY, new PolicyUriHandler());
+    }
 
     @Override
     public void put(RequestContext requestContext) throws RegistryException{
-        Registry registry = requestContext.getRegistry();
         Resource resource = requestContext.getResource();
-        String resourceId = resource.getId();
+        String[] overview = readOverview(resource.getContent());
+        String fileUri = overview[0];
+        String type = overview[1];
+
+        UriImporter importer = importers.get(type);
+        if (importer == null) {
+            log.warn("No importer is registered for the URI type " + type + ", " + fileUri +
+                    " will not be imported");
+            return;
+        }
+
+        // the update lock is held by the importing thread only, so it being taken means that this
+        // is an artifact added by the import in progress on this thread, which is stored as is.
+        if (!CommonUtil.isUpdateLockAvailable()) {
+            recordImportState(resource, fileUri);
+            return;
+        }
+
+        if (asyncImport && queueImport(requestContext, importer, type, fileUri)) {
+            return;
+        }
+        importURI(requestContext, importer, type, fileUri);
+    }
+
+    /**
+     * Imports the given URI, unless it has not been modified since it was last imported. If the
+     * same URI is already being imported into the same artifact, the request waits for that
+     * import and reuses its outcome.
+     */
+    private void importURI(RequestContext requestContext, UriImporter importer, String type,
+                           String fileUri) throws RegistryException {
+        InFlightImports.Flight flight = InFlightImports.begin(type, fileUri,
+                requestContext.getResourcePath().getPath());
+        if (!flight.isLeader()) {
+            String actualPath = flight.await(ImportLocks.getTimeout());
+            if (log.isDebugEnabled()) {
+                log.debug("Joined a running import of " + fileUri);
+            }
+            if (actualPath != null) {
+                requestContext.setActualPath(actualPath);
+            }
+            requestContext.setProcessingComplete(true);
+            return;
+        }
+        String actualPath = null;
+        RegistryException error = null;
+        try {
+            importLocked(requestContext, importer, fileUri);
+            actualPath = requestContext.getActualPath();
+        } catch (RegistryException e) {
+            error = e;
+            throw e;
+        } finally {
+            if (error == null && actualPath == null && !requestContext.isProcessingComplete()) {
+                error = new RegistryException("The import of " + fileUri + " did not complete");
+            }
+            flight.end(actualPath, error);
+        }
+    }
+
+    private void importLocked(RequestContext requestContext, UriImporter importer, String fileUri)
+            throws RegistryException {
+        ImportLocks.acquire(fileUri);
+        ImportSession session = ImportSession.begin();
+        boolean rootImport = session.setRootURL(fileUri);
+        List<ImportSession.DeferredImport> deferredImports = null;
+        try {
+            if (isUnchanged(requestContext, session, fileUri)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Skipping the import of " + fileUri + ", as it has not been modified");
+                }
+                requestContext.setProcessingComplete(true);
+                return;
+            }
+
+            importer.importResource(requestContext, fileUri);
+            // a nested import, such as that of a policy referred by a WSDL, leaves its entries to
+            // the outermost import, so that the index is written once.
+            if (rootImport) {
+                session.flushIndexEntries(CommonUtil.getUnchrootedSystemRegistry(requestContext));
+                deferredImports = session.takeDeferredImports();
+            }
+        } finally {
+            if (rootImport) {
+                session.clearRootURL();
+            }
+            ImportSession.end();
+            ImportLocks.release(fileUri);
+        }
+        if (deferredImports != null && !deferredImports.isEmpty()) {
+            runDeferredImports(requestContext, fileUri, deferredImports);
+        }
+    }
+
+    /**
+     * Runs the imports deferred by the import of the given URI once it has released its lock.
+     * Each of them takes the lock of its own URI, but is still recorded as imported with the given
+     * URI, and their index entries are written together.
+     */
+    private void runDeferredImports(RequestContext requestContext, String fileUri,
+                                    List<ImportSession.DeferredImport> deferredImports)
+            throws RegistryException {
+        ImportSession session = ImportSession.begin();
+        boolean rootImport = session.setRootURL(fileUri);
+        try {
+            for (ImportSession.DeferredImport deferredImport : deferredImports) {
+                deferredImport.run();
+            }
+            if (rootImport) {
+                session.flushIndexEntries(CommonUtil.getUnchrootedSystemRegistry(requestContext));
+            }
+        } finally {
+            if (rootImport) {
+                session.clearRootURL();
+            }
+            ImportSession.end();
+        }
+    }
+
+    /**
+     * Queues the import of the given URI, and lets the put store the artifact with a pending
+     * status. The worker waits until the pending artifact has been committed, imports the URI, and
+     * records the outcome of the import in the status fields of the artifact.
+     *
+     * @return false if the queue is full, in which case the URI has to be imported in place.
+     */
+    private boolean queueImport(RequestContext requestContext, final UriImporter importer,
+                                final String type, final String fileUri) throws RegistryException {
+        Resource resource = requestContext.getResource();
+        final Registry systemRegistry = CommonUtil.getUnchrootedSystemRegistry(requestContext);
+        final String path = requestContext.getResourcePath().getPath();
+
+        // the importers modify the resource they are given, so the worker gets its own copy.
+        ResourceImpl importResource = new ResourceImpl();
+        importResource.setMediaType(resource.getMediaType());
+        importResource.setDescription(resource.getDescription());
+        importResource.setContent(resource.getContent());
+        copyProperties(resource, importResource);
+        final RequestContext importContext = new RequestContext(requestContext.getRegistry(),
+                requestContext.getRepository(), requestContext.getVersionRepository());
+        importContext.setResourcePath(requestContext.getResourcePath());
+        importContext.setResource(importResource);
+        // the worker threads have no tenant of their own, so the import runs as the tenant of the
+        // request that queued it.
+        CarbonContext carbonContext = CarbonContext.getCurrentContext();
+        final int tenantId = carbonContext.getTenantId();
+        final String tenantDomain = carbonContext.getTenantDomain();
+
+        boolean queued = ImportQueue.getInstance().submit(fileUri, new Runnable() {
+            private int checks = 0;
+
+            public void run() {
+                PrivilegedCarbonContext.startTenantFlow();
+                try {
+                    PrivilegedCarbonContext tenantContext = PrivilegedCarbonContext.getCurrentContext();
+                    tenantContext.setTenantId(tenantId);
+                    tenantContext.setTenantDomain(tenantDomain);
+                    importQueued();
+                } finally {
+                    PrivilegedCarbonContext.endTenantFlow();
+                }
+            }
+
+            private void importQueued() {
+                // the put that stores the pending artifact may not have been committed yet, in
+                // which case the import is checked again later instead of holding the worker.
+                try {
+                    if (!isPending(systemRegistry, path)) {
+                        if (++checks < MAX_PENDING_CHECKS) {
+                            ImportQueue.getInstance().schedule(fileUri, this, PENDING_CHECK_DELAY);
+                        } else {
+                            log.warn("The artifact of " + fileUri + " was not stored, " +
+                                    "discarding its queued import");
+                        }
+                        return;
+                    }
+                } catch (RegistryException e) {
+                    log.error("Failed to read the import status of " + fileUri, e);
+                    return;
+                }
+
+                long startTime = System.currentTimeMillis();
+                String error = null;
+                try {
+                    importURI(importContext, importer, type, fileUri);
+                } catch (Throwable e) {
+                    log.error("Failed to import " + fileUri, e);
+                    error = e.getMessage() != null ? e.getMessage() : e.toString();
+                }
+                try {
+                    ImportLocks.acquire(fileUri);
+                    try {
+                        ImportStatus.updateStatus(systemRegistry, path,
+                                error == null ? ImportStatus.IMPORTED : ImportStatus.FAILED,
+                                System.currentTimeMillis() - startTime, error);
+                    } finally {
+                        ImportLocks.release(fileUri);
+                    }
+                } catch (RegistryException e) {
+                    log.error("Failed to record the import status of " + fileUri, e);
+                }
+            }
+        });
+        if (!queued) {
+            log.warn("The URI import queue is full, importing " + fileUri + " in place");
+            return false;
+        }
+
+        // the properties recorded by the last import are kept, so that the worker can tell
+        // whether the document has been modified.
+        if (systemRegistry.resourceExists(path)) {
+            Resource existingResource = systemRegistry.get(path);
+            if (fileUri.equals(existingResource.getProperty(UriConstants.SOURCE_PROPERTY))) {
+                for (String property : new String[] {UriConstants.SOURCE_PROPERTY,
+                        UriConstants.CONTENT_HASH_PROPERTY, UriConstants.GRAPH_DIGEST_PROPERTY}) {
+                    String value = existingResource.getProperty(property);
+                    if (value != null) {
+                        resource.setProperty(property, value);
+                    }
+                }
+            }
+        }
+        ImportStatus.setStatus(resource, ImportStatus.PENDING, -1, null);
+        return true;
+    }
+
+    private static boolean isPending(Registry registry, String path) throws RegistryException {
+        return registry.resourceExists(path) &&
+                ImportStatus.PENDING.equals(ImportStatus.getStatus(registry.get(path)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void copyProperties(Resource source, Resource target) {
+        Properties properties = source.getProperties();
+        if (properties == null) {
+            return;
+        }
+        for (Map.Entry<Object, Object> e : properties.entrySet()) {
+            if (e.getValue() instanceof String) {
+                target.setProperty((String) e.getKey(), (String) e.getValue());
+            } else {
+                target.setProperty((String) e.getKey(), (List<String>) e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads the URI and the type from the overview of the given URI artifact content. The content
+     * is streamed only up to the point where both values have been read.
+     *
+     * @param content the content of the URI artifact, as a String or as bytes.
+     * @return the URI and the type.
+     * @throws RegistryException if the content is not a valid URI artifact.
+     */
+    private static String[] readOverview(Object content) throws RegistryException {
         String fileUri = null;
         String type = null;
-
-        byte[] content =  ((String)resource.getContent()).getBytes();
-        ByteArrayInputStream in = new ByteArrayInputStream(content);
-        OMElement docElement;
         try {
-            StAXOMBuilder builder = new StAXOMBuilder(in);
-            docElement = builder.getDocumentElement();
-            SimpleNamespaceContext simpleNamespaceContext = new SimpleNamespaceContext();
-            simpleNamespaceContext.addNamespace("pre",docElement.getNamespace().getNamespaceURI());
-            AXIOMXPath expression = new AXIOMXPath("//pre:overview");
-            expression.setNamespaceContext(simpleNamespaceContext);
-            List<OMElement> overview = expression.selectNodes(docElement);
-            Iterator<OMElement> elements = overview.get(0).getChildElements();
-
-            while (elements.hasNext()){
-                OMElement element = elements.next();
-                String localName = element.getLocalName();
-                if("uri".equals(localName)){
-                    fileUri = element.getText();
-                } else if ("type".equals(localName)){
-                    type = element.getText();
+            XMLStreamReader reader;
+            if (content instanceof String) {
+                reader = inputFactory.createXMLStreamReader(new StringReader((String) content));
+            } else if (content instanceof byte[]) {
+                reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream((byte[]) content));
+            } else {
+                throw new RegistryException("Failed to parse content of URI: the artifact has no content");
+            }
+            try {
+                String rootNamespace = null;
+                boolean overviewFound = false;
+                int depth = 0;
+                while (reader.hasNext() && (fileUri == null || type == null)) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                        if (overviewFound && depth == 0) {
+                            // the first overview has ended.
+                            break;
+                        }
+                        continue;
+                    } else if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    String namespace = reader.getNamespaceURI();
+                    String localName = reader.getLocalName();
+                    if (rootNamespace == null) {
+                        rootNamespace = namespace != null ? namespace : "";
+                    }
+                    if (!overviewFound) {
+                        if (OVERVIEW_ELEMENT.equals(localName) &&
+                                rootNamespace.equals(namespace != null ? namespace : "")) {
+                            overviewFound = true;
+                            depth = 1;
+                        }
+                    } else if (depth++ == 1) {
+                        if (URI_ELEMENT.equals(localName)) {
+                            fileUri = reader.getElementText().trim();
+                            depth--;
+                        } else if (TYPE_ELEMENT.equals(localName)) {
+                            type = reader.getElementText().trim();
+                            depth--;
+                        }
+                    }
+                }
+                if (!overviewFound) {
+                    throw new RegistryException(
+                            "Failed to parse content of URI: the artifact has no overview");
                 }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new RegistryException("Failed to parse content of URI: " + e.getMessage(), e);
+        }
+        if (fileUri == null || fileUri.length() == 0) {
+            throw new RegistryException("Failed to parse content of URI: the artifact has no URI");
+        }
+        if (type == null || type.length() == 0) {
+            throw new RegistryException("Failed to parse content of URI: the artifact of " +
+                    fileUri + " has no type");
+        }
+        return new String[] {fileUri, type};
+    }
+
+    /**
+     * Records the content hash of the imported document, and the digest of the documents of its
+     * import graph, on the artifact. A later import of the same URI compares the digest, so that
+     * a modified import of an unmodified document is imported again as well. The artifacts added
+     * for the imports of a WSDL or schema record the digest of their own graph, and the URL of the
+     * import they were added by.
+     */
+    private void recordImportState(Resource resource, String fileUri) {
+        ImportSession session = ImportSession.getSession();
+        RemoteDocument document = session.findDocument(fileUri);
+        String graphDigest = session.getDigest(fileUri);
+        if (document == null || graphDigest == null) {
+            return;
+        }
+        resource.setProperty(UriConstants.SOURCE_PROPERTY, fileUri);
+        resource.setProperty(UriConstants.CONTENT_HASH_PROPERTY, document.getContentHash());
+        resource.setProperty(UriConstants.GRAPH_DIGEST_PROPERTY, graphDigest);
+        String rootURL = session.getRootURL();
+        if (rootURL == null || rootURL.equals(fileUri)) {
+            resource.removeProperty(UriConstants.IMPORTED_WITH_PROPERTY);
+        } else {
+            resource.setProperty(UriConstants.IMPORTED_WITH_PROPERTY, rootURL);
+        }
+    }
+
+    /**
+     * Checks whether the artifact at the path of the request was imported from the same URI and
+     * neither the document behind it nor any document it imports has been modified since.
+     */
+    private boolean isUnchanged(RequestContext requestContext, ImportSession session,
+                                String fileUri) throws RegistryException {
+        Registry systemRegistry = CommonUtil.getUnchrootedSystemRegistry(requestContext);
+        String path = requestContext.getResourcePath().getPath();
+        if (!systemRegistry.resourceExists(path)) {
+            return false;
+        }
+        Resource existingResource = systemRegistry.get(path);
+        String graphDigest = existingResource.getProperty(UriConstants.GRAPH_DIGEST_PROPERTY);
+        if (graphDigest == null ||
+                !fileUri.equals(existingResource.getProperty(UriConstants.SOURCE_PROPERTY))) {
+            return false;
+        }
+        // documents that could not be read leave the digest different, and the import reports them.
+        return !session.isGraphModified(fileUri, graphDigest);
+    }
+
+    /**
+     * Registers importers for URI types, replacing the importer of a type that is already
+     * registered.
+     *
+     * @param importers comma separated entries of the form <code>type=importer class</code>.
+     */
+    public void setImporters(String importers) {
+        for (String entry : importers.split(",")) {
+            int index = entry.indexOf('=');
+            if (index <= 0) {
+                continue;
+            }
+            String type = entry.substring(0, index).trim();
+            String className = entry.substring(index + 1).trim();
+            try {
+                this.importers.put(type, (UriImporter) Class.forName(className).newInstance());
+            } catch (Exception e) {
+                log.error("Unable to create the importer " + className + " for the URI type " + type, e);
             }
+        }
+    }
 
+    public void setDisableWSDLValidation(String disableWSDLValidation) {
+        UriImporter importer = importers.get(UriConstants.WSDL);
+        if (importer instanceof WsdlUriHandler) {
+            ((WsdlUriHandler) importer).setDisableWSDLValidation(disableWSDLValidation);
+        }
+    }
 
-        } catch (Exception e) {
-            throw new RegistryException(
-                    "Failed to parse content of URI ");
+    public void setCreateService(String createService) {
+        UriImporter importer = importers.get(UriConstants.WSDL);
+        if (importer instanceof WsdlUriHandler) {
+            ((WsdlUriHandler) importer).setCreateService(createService);
         }
+    }
 
-        if(type.equals(UriConstants.WSDL)){
-            WsdlUriHandler wsdlUriHandler = new WsdlUriHandler();
-            wsdlUriHandler.importResource(requestContext, fileUri);
-        } else if(type.equals(UriConstants.XSD)){
-            SchemaUriHandler schemaUriHandler = new SchemaUriHandler();
-            schemaUriHandler.importResource(requestContext, fileUri);
-        } else if(type.equals(UriConstants.POLICY)){
-            PolicyUriHandler policyUriHandler = new PolicyUriHandler();
-            policyUriHandler.importResource(requestContext, fileUri);
+    public void setDisableSchemaValidation(String disableSchemaValidation) {
+        UriImporter importer = importers.get(UriConstants.XSD);
+        if (importer instanceof SchemaUriHandler) {
+            ((SchemaUriHandler) importer).setDisableSchemaValidation(disableSchemaValidation);
+        }
+    }
+
+    public void setDeferValidation(String deferValidation) {
+        UriImporter importer = importers.get(UriConstants.WSDL);
+        if (importer instanceof WsdlUriHandler) {
+            ((WsdlUriHandler) importer).setDeferValidation(deferValidation);
+        }
+        importer = importers.get(UriConstants.XSD);
+        if (importer instanceof SchemaUriHandler) {
+            ((SchemaUriHandler) importer).setDeferValidation(deferValidation);
         }
+    }
+
+    public void setAsyncImport(String asyncImport) {
+        this.asyncImport = Boolean.valueOf(asyncImport);
+    }
+
+    public void setAsyncImportThreads(String asyncImportThreads) {
+        ImportQueue.getInstance().setThreads(Integer.parseInt(asyncImportThreads));
+    }
+
+    public void setAsyncImportQueueSize(String asyncImportQueueSize) {
+        ImportQueue.getInstance().setCapacity(Integer.parseInt(asyncImportQueueSize));
+    }
+
+    public void setImportLockTimeout(String importLockTimeout) {
+        ImportLocks.setTimeout(Long.parseLong(importLockTimeout));
+    }
+
+    public void setFetchCacheLocation(String fetchCacheLocation) {
+        UriFetchCache.getInstance().setCacheDirectory(fetchCacheLocation);
+    }
+
+    public void setFetchCacheMaxSize(String fetchCacheMaxSize) {
+        UriFetchCache.getInstance().setMaxSize(Long.parseLong(fetchCacheMaxSize));
+    }
+
+    public void setImportFetchThreads(String importFetchThreads) {
+        ImportPrefetcher.setPoolSize(Integer.parseInt(importFetchThreads));
+    }
+
+    public void setFetchConnectTimeout(String fetchConnectTimeout) {
+        UriFetchClient.getInstance().setConnectTimeout(Integer.parseInt(fetchConnectTimeout));
+    }
+
+    public void setFetchReadTimeout(String fetchReadTimeout) {
+        UriFetchClient.getInstance().setReadTimeout(Integer.parseInt(fetchReadTimeout));
+    }
+
+    public void setFetchTotalTimeout(String fetchTotalTimeout) {
+        UriFetchClient.getInstance().setTotalTimeout(Long.parseLong(fetchTotalTimeout));
+    }
+
+    public void setFetchMaxResponseSize(String fetchMaxResponseSize) {
+        UriFetchClient.getInstance().setMaxResponseSize(Long.parseLong(fetchMaxResponseSize));
+    }
+
+    public void setFetchMaxConnectionsPerHost(String fetchMaxConnectionsPerHost) {
+        UriFetchClient.getInstance().setMaxConnectionsPerHost(
+                Integer.parseInt(fetchMaxConnectionsPerHost));
+    }
+
+    public void setMaxPolicySize(String maxPolicySize) {
+        PolicyUriHandler.setMaxPolicySize(Long.parseLong(maxPolicySize));
+    }
+
+    public void setParsedSchemaCacheSize(String parsedSchemaCacheSize) {
+        ParsedSchemaCache.getInstance().setMaxSize(Integer.parseInt(parsedSchemaCacheSize));
+    }
+
+    public void setValidationCacheSize(String validationCacheSize) {
+        ValidationCache.getInstance().setMaxSize(Integer.parseInt(validationCacheSize));
+    }
+
+    public void setGrammarPoolSize(String grammarPoolSize) {
+        SchemaGrammarPool.setMaxSize(Integer.parseInt(grammarPoolSize));
+    }
+
+    public void setCatalogFiles(String catalogFiles) {
+        UriCatalog.getInstance().setCatalogFiles(catalogFiles);
+    }
+
+    public void setRefreshInterval(String refreshInterval) {
+        UriRefreshScheduler.getInstance().setInterval(Long.parseLong(refreshInterval));
+    }
+
+    public void setRefreshThreads(String refreshThreads) {
+        UriRefreshScheduler.getInstance().setThreads(Integer.parseInt(refreshThreads));
+    }
+
+    public void setRefreshHostDelay(String refreshHostDelay) {
+        UriRefreshScheduler.getInstance().setHostDelay(Long.parseLong(refreshHostDelay));
+    }
 
+    public void setRefreshJitter(String refreshJitter) {
+        UriRefreshScheduler.getInstance().setJitter(Long.parseLong(refreshJitter));
     }
 }
@@ -25,22 +25,27 @@ import org.wso2.carbon.registry.extensions.beans.BusinessServiceInfo;
 import org.wso2.carbon.registry.extensions.handlers.utils.UDDIPublisher;
 import org.wso2.carbon.registry.extensions.utils.CommonConstants;
 import org.wso2.carbon.registry.extensions.utils.CommonUtil;
+import org.wso2.carbon.registry.handlers.uri.utils.DeferredValidation;
+import org.wso2.carbon.registry.handlers.uri.utils.ImportSession;
 import org.wso2.carbon.registry.handlers.uri.utils.WsdlProcessor;
 
 import java.util.*;
 
-public class WsdlUriHandler {
+public class WsdlUriHandler implements UriImporter {
     private static final Log log = LogFactory.getLog(WsdlUriHandler.class);
 
     private boolean createService = true;
 
     private boolean disableWSDLValidation = false;
 
+    private boolean deferValidation = false;
+
     public void importResource(RequestContext requestContext, String sourceURL) throws RegistryException {
         if (!CommonUtil.isUpdateLockAvailable()) {
             return;
         }
         CommonUtil.acquireUpdateLock();
+        ImportSession.begin();
         WsdlProcessor wsdlProcessor;
         try {
             Resource metadata = requestContext.getResource();
@@ -51,8 +56,11 @@ public class WsdlUriHandler {
             }
             try {
                 wsdlProcessor = buildWSDLProcessor(requestContext);
+                wsdlProcessor.setDeferValidation(deferValidation);
                 String wsdlPath =
                         processWSDLImport(requestContext, wsdlProcessor, metadata, sourceURL);
+                DeferredValidation.submit(sourceURL, wsdlProcessor.getMasterArtifactPath(),
+                        wsdlProcessor.getDeferredValidations());
                 ResourcePath resourcePath = requestContext.getResourcePath();
                 String path = null;
                 if (resourcePath != null) {
@@ -75,6 +83,7 @@ public class WsdlUriHandler {
                 publisher.publishBusinessService();
             }
         } finally {
+            ImportSession.end();
             CommonUtil.releaseUpdateLock();
         }
     }
@@ -129,6 +138,10 @@ public class WsdlUriHandler {
         this.disableWSDLValidation = Boolean.toString(true).equals(disableWSDLValidation);
     }
 
+    public void setDeferValidation(String deferValidation) {
+        this.deferValidation = Boolean.toString(true).equals(deferValidation);
+    }
+
     public void setCreateService(String createService) {
         this.createService = Boolean.valueOf(createService);
     }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.wso2.carbon.registry.core.Association;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+import org.wso2.carbon.registry.extensions.utils.CommonConstants;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the associations detected by an import to the registry.
+ */
+public class AssociationWriter {
+
+    /**
+     * Adds the given associations that do not already exist. The associations are grouped by
+     * their source, so that the existing associations of each source are read only once.
+     *
+     * @param registry     the registry.
+     * @param associations the associations to be added.
+     * @throws RegistryException if an association could not be read or added.
+     */
+    public static void addMissingAssociations(Registry registry, List<Association> associations)
+            throws RegistryException {
+        Map<String, List<Association>> associationsBySource =
+                new LinkedHashMap<String, List<Association>>();
+        for (Association association : associations) {
+            List<Association> sourceAssociations =
+                    associationsBySource.get(association.getSourcePath());
+            if (sourceAssociations == null) {
+                sourceAssociations = new ArrayList<Association>();
+                associationsBySource.put(association.getSourcePath(), sourceAssociations);
+            }
+            sourceAssociations.add(association);
+        }
+        RegistryReadCache readCache = ImportSession.getSession().getReadCache();
+        for (Map.Entry<String, List<Association>> entry : associationsBySource.entrySet()) {
+            Set<String> existingKeys = new HashSet<String>();
+            Association[] existingAssociations =
+                    readCache.getAllAssociations(registry, entry.getKey());
+            if (existingAssociations != null) {
+                for (Association existingAssociation : existingAssociations) {
+                    existingKeys.add(getKey(existingAssociation));
+                }
+            }
+            for (Association association : entry.getValue()) {
+                // the set also filters out duplicates among the new associations.
+                if (existingKeys.add(getKey(association))) {
+                    readCache.addAssociation(registry, association.getSourcePath(),
+                            association.getDestinationPath(),
+                            association.getAssociationType());
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the dependencies of the resource at the given path, along with the corresponding
+     * usages.
+     *
+     * @param registry the registry.
+     * @param path     the path of the resource.
+     * @throws RegistryException if a dependency could not be read or removed.
+     */
+    public static void removeDependencies(Registry registry, String path)
+            throws RegistryException {
+        RegistryReadCache readCache = ImportSession.getSession().getReadCache();
+        Association[] dependencies =
+                readCache.getAssociations(registry, path, CommonConstants.DEPENDS);
+        if (dependencies == null) {
+            return;
+        }
+        for (Association dependency : dependencies) {
+            if (dependency.getSourcePath().equals(path)) {
+                readCache.removeAssociation(registry, dependency.getSourcePath(),
+                        dependency.getDestinationPath(), CommonConstants.DEPENDS);
+                readCache.removeAssociation(registry, dependency.getDestinationPath(),
+                        dependency.getSourcePath(), CommonConstants.USED_BY);
+            }
+        }
+    }
+
+    private static String getKey(Association association) {
+        return association.getAssociationType() + "|" + association.getDestinationPath();
+    }
+}
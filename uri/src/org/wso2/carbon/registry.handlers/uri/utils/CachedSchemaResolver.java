@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.ws.commons.schema.XmlSchemaException;
+import org.apache.ws.commons.schema.resolver.DefaultURIResolver;
+import org.xml.sax.InputSource;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Schema resolver that reads imported and included schemas through an {@link ImportSession}.
+ */
+public class CachedSchemaResolver extends DefaultURIResolver {
+    private ImportSession session;
+    private Map<String, String> documentHashes = new HashMap<String, String>();
+
+    public CachedSchemaResolver(ImportSession session) {
+        this.session = session;
+    }
+
+    public InputSource resolveEntity(String targetNamespace, String schemaLocation,
+                                     String baseUri) {
+        InputSource inputSource = super.resolveEntity(targetNamespace, schemaLocation, baseUri);
+        if (inputSource == null || inputSource.getSystemId() == null) {
+            return inputSource;
+        }
+        return getInputSource(inputSource.getSystemId());
+    }
+
+    /**
+     * Returns an input source for the schema at the given location, served by the session.
+     *
+     * @param location the absolute location of the schema.
+     * @return the input source.
+     * @throws XmlSchemaException if the schema could not be fetched. XmlSchema is not left to
+     *                            fetch it on its own, as its fetches are not bounded.
+     */
+    public InputSource getInputSource(String location) {
+        if (session == null) {
+            throw new XmlSchemaException("Unable to fetch " + location +
+                    ": the schema resolver has been detached from its import");
+        }
+        RemoteDocument document;
+        try {
+            document = session.getDocument(location);
+        } catch (IOException e) {
+            throw new XmlSchemaException("Unable to fetch " + location + ": " + e.getMessage(), e);
+        }
+        documentHashes.put(location, document.getContentHash());
+        InputSource inputSource = new InputSource(document.getInputStream());
+        inputSource.setSystemId(location);
+        return inputSource;
+    }
+
+    /**
+     * Detaches this resolver from its session. A parsed schema keeps its collection, and with it
+     * this resolver, so the resolver is detached once parsing is done for a cached schema not to
+     * hold on to the documents of the import that parsed it.
+     */
+    public void detach() {
+        session = null;
+    }
+
+    /**
+     * Returns the content hashes of the documents served by this resolver.
+     *
+     * @return the content hashes keyed by location.
+     */
+    public Map<String, String> getDocumentHashes() {
+        return documentHashes;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import com.ibm.wsdl.util.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.InputSource;
+
+import javax.wsdl.xml.WSDLLocator;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * WSDL locator that reads the WSDL and all of its imports through an {@link ImportSession}.
+ */
+public class CachedWSDLLocator implements WSDLLocator {
+    private static final Log log = LogFactory.getLog(CachedWSDLLocator.class);
+
+    private ImportSession session;
+    private String baseURI;
+    private String latestImportURI;
+
+    public CachedWSDLLocator(ImportSession session, String baseURI) {
+        this.session = session;
+        this.baseURI = baseURI;
+    }
+
+    public InputSource getBaseInputSource() {
+        return getInputSource(baseURI);
+    }
+
+    public InputSource getImportInputSource(String parentLocation, String importLocation) {
+        // resolve the import in the same way as the default wsdl4j locator does.
+        try {
+            URL contextURL = (parentLocation != null) ? StringUtils.getURL(null, parentLocation) : null;
+            latestImportURI = StringUtils.getURL(contextURL, importLocation).toString();
+        } catch (MalformedURLException e) {
+            log.error("Unable to resolve the import " + importLocation + " of " + parentLocation, e);
+            latestImportURI = importLocation;
+            return null;
+        }
+        return getInputSource(latestImportURI);
+    }
+
+    public String getBaseURI() {
+        return baseURI;
+    }
+
+    public String getLatestImportURI() {
+        return latestImportURI;
+    }
+
+    public void close() {
+    }
+
+    /**
+     * Returns an input source for the document at the given location, served by the session.
+     * wsdl4j is not left to fetch a document on its own, as its fetches are not bounded.
+     *
+     * @throws FetchException if the document could not be fetched.
+     */
+    private InputSource getInputSource(String location) {
+        InputSource inputSource;
+        try {
+            inputSource = new InputSource(session.getDocument(location).getInputStream());
+        } catch (IOException e) {
+            throw new FetchException("Unable to fetch " + location + ": " + e.getMessage(), e);
+        }
+        inputSource.setSystemId(location);
+        return inputSource;
+    }
+
+    /**
+     * Thrown through wsdl4j when a document of the WSDL could not be fetched.
+     */
+    public static class FetchException extends RuntimeException {
+        public FetchException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.context.CarbonContext;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+import org.wso2.carbon.registry.core.internal.RegistryCoreServiceComponent;
+import org.wso2.carbon.registry.core.jdbc.handlers.RequestContext;
+import org.wso2.carbon.registry.extensions.handlers.utils.WSDLUtils;
+import org.wso2.carbon.registry.extensions.utils.CommonUtil;
+import org.wso2.carbon.registry.extensions.utils.WSDLValidationInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the validations of imported WSDLs and schemas in the background, so that imports do not
+ * wait for them. When the validations are queued, the stored artifact of the imported document is
+ * marked as pending. Its status and message properties are patched in once the validations have
+ * finished. The validations run on a bounded pool, and run in place when the pool is full. Results
+ * whose artifact has not been committed yet are recorded again later, rather than waiting on a
+ * thread of the pool.
+ */
+public class DeferredValidation {
+    private static final Log log = LogFactory.getLog(DeferredValidation.class);
+
+    public static final String PENDING = "Validation pending";
+    public static final String FAILED = "Validation failed";
+
+    private static final int THREADS = 2;
+    private static final int CAPACITY = 1000;
+    private static final int MAX_MESSAGE_LENGTH = 1000;
+    private static final int MAX_ATTEMPTS = 30;
+    private static final long RETRY_DELAY = 1000;
+
+    private static final ScheduledThreadPoolExecutor executor = createExecutor();
+
+    /**
+     * A validation of an imported document, and the properties that record its outcome.
+     */
+    public abstract static class Check {
+        private final String statusProperty;
+        private final String messageProperty;
+        private final String cacheKey;
+
+        /**
+         * @param statusProperty  the property holding the status.
+         * @param messageProperty the prefix of the numbered properties holding the messages.
+         * @param cacheKey        the key of the outcome in the {@link ValidationCache}, or null.
+         */
+        protected Check(String statusProperty, String messageProperty, String cacheKey) {
+            this.statusProperty = statusProperty;
+            this.messageProperty = messageProperty;
+            this.cacheKey = cacheKey;
+        }
+
+        protected abstract WSDLValidationInfo validate() throws Exception;
+
+        protected String getStatus(WSDLValidationInfo validationInfo) {
+            return validationInfo.getStatus();
+        }
+    }
+
+    public static Check newWSDLCheck(final RequestContext validationContext, String cacheKey) {
+        return new Check(WSDLUtils.WSDL_STATUS, WSDLUtils.WSDL_VALIDATION_MESSAGE, cacheKey) {
+            protected WSDLValidationInfo validate() throws Exception {
+                return WSDLUtils.validateWSDL(validationContext);
+            }
+        };
+    }
+
+    public static Check newWSICheck(final RequestContext validationContext, String cacheKey) {
+        return new Check(WSDLUtils.WSI_STATUS, WSDLUtils.WSI_VALIDATION_MESSAGE, cacheKey) {
+            protected WSDLValidationInfo validate() throws Exception {
+                return WSDLUtils.validateWSI(validationContext);
+            }
+        };
+    }
+
+    /**
+     * Creates the validation of the schema at the given URL. The documents read by the import so
+     * far and the tenant of the import are captured, as the validation runs after the import has
+     * ended, on a thread that has neither.
+     *
+     * @param session  the session of the import.
+     * @param url      the URL of the schema.
+     * @param cacheKey the key of the outcome in the {@link ValidationCache}, or null.
+     * @return the validation.
+     */
+    public static Check newSchemaCheck(ImportSession session, final String url, String cacheKey) {
+        final ImportSession documents = session.copyDocuments();
+        final int tenantId = CarbonContext.getCurrentContext().getTenantId();
+        return new Check(SchemaProcessor.SCHEMA_STATUS, SchemaProcessor.SCHEMA_VALIDATION_MESSAGE,
+                cacheKey) {
+            protected WSDLValidationInfo validate() throws Exception {
+                return SchemaGrammarValidator.validate(documents, tenantId,
+                        documents.getXMLInputSource(url));
+            }
+
+            protected String getStatus(WSDLValidationInfo validationInfo) {
+                List<String> messages = validationInfo.getValidationMessages();
+                return messages != null && messages.size() > 0 ? WSDLUtils.INVALID : WSDLUtils.VALID;
+            }
+        };
+    }
+
+    /**
+     * Marks the stored artifact of the given document as pending, and queues its validations.
+     *
+     * @param sourceURL    the URL of the validated document.
+     * @param artifactPath the path of the stored artifact, relative to the governance registry.
+     * @param checks       the validations.
+     * @throws RegistryException if the artifact could not be marked as pending.
+     */
+    public static void submit(final String sourceURL, final String artifactPath,
+                              final List<Check> checks) throws RegistryException {
+        if (checks.isEmpty()) {
+            return;
+        }
+        if (artifactPath == null) {
+            log.warn("No artifact was stored for " + sourceURL + ", skipping its validation");
+            return;
+        }
+        final Registry registry = getGovernanceRegistry();
+        String[] statuses = new String[checks.size()];
+        List<List<String>> messages = new ArrayList<List<String>>(checks.size());
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = PENDING;
+            messages.add(Collections.<String>emptyList());
+        }
+        updateProperties(registry, sourceURL, artifactPath, checks, statuses, messages, false);
+
+        Runnable task = new Runnable() {
+            public void run() {
+                validate(registry, sourceURL, artifactPath, checks);
+            }
+        };
+        try {
+            if (executor.getQueue().size() >= CAPACITY) {
+                throw new RejectedExecutionException();
+            }
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.warn("The validation queue is full, validating " + sourceURL + " in place");
+            task.run();
+        }
+    }
+
+    private static void validate(Registry registry, String sourceURL, String artifactPath,
+                                 List<Check> checks) {
+        ValidationCache validationCache = ValidationCache.getInstance();
+        String[] statuses = new String[checks.size()];
+        List<List<String>> messages = new ArrayList<List<String>>(checks.size());
+        for (int i = 0; i < statuses.length; i++) {
+            Check check = checks.get(i);
+            List<String> checkMessages = new ArrayList<String>();
+            try {
+                WSDLValidationInfo validationInfo = validationCache.get(check.cacheKey);
+                if (validationInfo == null) {
+                    validationInfo = check.validate();
+                    validationCache.put(check.cacheKey, validationInfo);
+                }
+                if (validationInfo != null) {
+                    statuses[i] = check.getStatus(validationInfo);
+                    if (validationInfo.getValidationMessages() != null) {
+                        checkMessages.addAll(validationInfo.getValidationMessages());
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Failed to validate " + sourceURL, e);
+                statuses[i] = FAILED;
+                checkMessages.add(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+            messages.add(checkMessages);
+        }
+
+        recordResults(registry, sourceURL, artifactPath, checks, statuses, messages, 0);
+    }
+
+    /**
+     * Records the results of the validations. The import may not have been committed yet, so until
+     * its pending status is visible the results are recorded again after a delay.
+     */
+    private static void recordResults(final Registry registry, final String sourceURL,
+                                      final String artifactPath, final List<Check> checks,
+                                      final String[] statuses, final List<List<String>> messages,
+                                      final int attempt) {
+        try {
+            if (updateProperties(registry, sourceURL, artifactPath, checks, statuses, messages,
+                    true)) {
+                return;
+            }
+        } catch (RegistryException e) {
+            log.error("Failed to record the validation results of " + sourceURL, e);
+            return;
+        }
+        if (attempt + 1 >= MAX_ATTEMPTS) {
+            log.warn("The artifact of " + sourceURL + " was not stored, discarding its validation results");
+            return;
+        }
+        try {
+            executor.schedule(new Runnable() {
+                public void run() {
+                    recordResults(registry, sourceURL, artifactPath, checks, statuses, messages,
+                            attempt + 1);
+                }
+            }, RETRY_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.warn("Unable to retry recording the validation results of " + sourceURL, e);
+        }
+    }
+
+    /**
+     * Sets the status and message properties of the artifact at the given path. The artifact is
+     * read and stored while holding the import lock of the source URL, so that the update does not
+     * race with the import status being recorded on the same artifact, and while holding the
+     * update lock, so that it is not imported again.
+     *
+     * @return false if the artifact does not exist, or is not pending while it was required to be.
+     */
+    private static boolean updateProperties(Registry registry, String sourceURL, String path,
+                                            List<Check> checks, String[] statuses,
+                                            List<List<String>> messages, boolean requirePending)
+            throws RegistryException {
+        ImportLocks.acquire(sourceURL);
+        try {
+            if (!registry.resourceExists(path)) {
+                return false;
+            }
+            Resource resource = registry.get(path);
+            if (requirePending &&
+                    !PENDING.equals(resource.getProperty(checks.get(0).statusProperty))) {
+                return false;
+            }
+            for (int i = 0; i < statuses.length; i++) {
+                setProperties(resource, checks.get(i), statuses[i], messages.get(i));
+            }
+            boolean lockAcquired = false;
+            if (CommonUtil.isUpdateLockAvailable()) {
+                CommonUtil.acquireUpdateLock();
+                lockAcquired = true;
+            }
+            try {
+                registry.put(path, resource);
+            } finally {
+                if (lockAcquired) {
+                    CommonUtil.releaseUpdateLock();
+                }
+            }
+            return true;
+        } finally {
+            ImportLocks.release(sourceURL);
+        }
+    }
+
+    private static void setProperties(Resource resource, Check check, String status,
+                                      List<String> messages) {
+        List<String> oldMessageProperties = new ArrayList<String>();
+        if (resource.getProperties() != null) {
+            for (Object key : resource.getProperties().keySet()) {
+                if (((String) key).startsWith(check.messageProperty)) {
+                    oldMessageProperties.add((String) key);
+                }
+            }
+        }
+        for (String property : oldMessageProperties) {
+            resource.removeProperty(property);
+        }
+        if (status == null) {
+            resource.removeProperty(check.statusProperty);
+            return;
+        }
+        resource.setProperty(check.statusProperty, status);
+        int i = 1;
+        for (String message : messages) {
+            if (message == null) {
+                continue;
+            }
+            if (message.length() > MAX_MESSAGE_LENGTH) {
+                message = message.substring(0, MAX_MESSAGE_LENGTH - 3) + "...";
+            }
+            resource.setProperty(check.messageProperty + i, message);
+            i++;
+        }
+    }
+
+    private static Registry getGovernanceRegistry() throws RegistryException {
+        return RegistryCoreServiceComponent.getRegistryService().getGovernanceSystemRegistry();
+    }
+
+    /**
+     * Creates the pool running the validations and the delayed recording of their results. Its
+     * queue is not bounded, so {@link #CAPACITY} is checked before a validation is queued.
+     */
+    private static ScheduledThreadPoolExecutor createExecutor() {
+        return new ScheduledThreadPoolExecutor(THREADS, new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "uri-validation-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
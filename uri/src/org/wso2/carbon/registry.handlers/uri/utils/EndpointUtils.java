@@ -15,14 +15,8 @@
  */
 package org.wso2.carbon.registry.handlers.uri.utils;
 
-import org.apache.axiom.om.OMAbstractFactory;
-import org.apache.axiom.om.OMElement;
-import org.apache.axiom.om.OMNamespace;
-import org.apache.axiom.om.impl.builder.StAXOMBuilder;
-import org.apache.axiom.om.xpath.AXIOMXPath;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.jaxen.JaxenException;
 import org.wso2.carbon.registry.core.Association;
 import org.wso2.carbon.registry.core.Registry;
 import org.wso2.carbon.registry.core.RegistryConstants;
@@ -32,21 +26,34 @@ import org.wso2.carbon.registry.core.utils.RegistryUtils;
 import org.wso2.carbon.registry.extensions.utils.CommonConstants;
 import org.wso2.carbon.registry.extensions.utils.CommonUtil;
 
-import javax.xml.namespace.QName;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
+import javax.wsdl.Definition;
+import javax.wsdl.Port;
+import javax.wsdl.Service;
+import javax.wsdl.extensions.ExtensibilityElement;
+import javax.wsdl.extensions.UnknownExtensibilityElement;
+import javax.wsdl.extensions.http.HTTPAddress;
+import javax.wsdl.extensions.soap.SOAPAddress;
+import javax.wsdl.extensions.soap12.SOAP12Address;
 
-import java.io.StringReader;
 import java.util.*;
 
 public class EndpointUtils {
     private static final Log log = LogFactory.getLog(EndpointUtils.class);
 
-    private static final String SOAP11_ENDPOINT_EXPR = "/wsdl:definitions/wsdl:service/wsdl:port/soap:address";
-    private static final String SOAP12_ENDPOINT_EXPR = "/wsdl:definitions/wsdl:service/wsdl:port/soap12:address";
-    private static final String HTTP_ENDPOINT_EXPR = "/wsdl:definitions/wsdl:service/wsdl:port/http:address";
+    private static final String ADDRESS_ELEMENT = "address";
     private static final String LOCATION_ATTR = "location";
+    // the length of a version segment, such as 1.0.0
+    private static final int VERSION_SEGMENT_LENGTH = 5;
+
+    private static final Map<String, String> addressAttributes = new HashMap<String, String>();
+    static {
+        addressAttributes.put("http://schemas.xmlsoap.org/wsdl/soap/",
+                CommonConstants.SOAP11_ENDPOINT_ATTRIBUTE);
+        addressAttributes.put("http://schemas.xmlsoap.org/wsdl/soap12/",
+                CommonConstants.SOAP12_ENDPOINT_ATTRIBUTE);
+        addressAttributes.put("http://schemas.xmlsoap.org/wsdl/http/",
+                CommonConstants.HTTP_ENDPOINT_ATTRIBUTE);
+    }
 
     private static final String ENDPOINT_DEFAULT_LOCATION = "/uris/endpoints/";
     private static String endpointLocation = ENDPOINT_DEFAULT_LOCATION;
@@ -68,148 +75,200 @@ public class EndpointUtils {
         return endpointMediaType;
     }
 
-    public static void saveEndpointsFromWSDL(String wsdlPath, Resource wsdlResource,
+    /**
+     * Saves the endpoints of the services defined in the given WSDL, at the given environment.
+     *
+     * @param wsdlPath       the path of the WSDL.
+     * @param wsdlDefinition the WSDL definition.
+     * @param registry       the registry.
+     * @param systemRegistry the system registry.
+     * @param environment    the location of the endpoints.
+     * @param dependencies   the existing dependencies of the WSDL.
+     * @param version        the version of the endpoints.
+     * @throws RegistryException if the operation failed.
+     */
+    public static void saveEndpointsFromWSDL(String wsdlPath, Definition wsdlDefinition,
                                       Registry registry, Registry systemRegistry,String environment
             ,List<String> dependencies,String version) throws RegistryException {
-        // building the wsdl element.
-        byte[] wsdlContentBytes = (byte[])wsdlResource.getContent();
-        if (wsdlContentBytes == null) {
+        Map<String, Map<String, String>> endpoints = getEndpointProperties(wsdlDefinition);
+        if (endpoints.isEmpty()) {
             return;
         }
-        OMElement wsdlElement;
-        try {
-            wsdlElement = buildOMElement(new String(wsdlContentBytes));
-        } catch (Exception e) {
-            String msg = "Error in building the wsdl element for path: " + wsdlPath + ".";
-            log.error(msg, e);
-            throw new RegistryException(msg, e);
-        }
-        // saving soap11 endpoints
-        List<OMElement> soap11Elements;
-        try {
-            soap11Elements =  evaluateXPathToElements(SOAP11_ENDPOINT_EXPR, wsdlElement);
-        } catch (Exception e) {
-            String msg = "Error in evaluating xpath expressions to extract endpoints, wsdl path: " + wsdlPath + ".";
-            log.error(msg, e);
-            throw new RegistryException(msg, e);
-        }
-        for (OMElement soap11Element: soap11Elements) {
-            String locationUrl = soap11Element.getAttributeValue(new QName(LOCATION_ATTR));
-            Map<String, String> properties = new HashMap<String, String>();
-            properties.put(CommonConstants.SOAP11_ENDPOINT_ATTRIBUTE, "true");
-            saveEndpoint(registry, locationUrl, wsdlPath, properties, systemRegistry,environment,dependencies,version);
+        Map<String, String> versionedDependencies = getVersionedDependencies(dependencies);
+        Set<String> links = getLinks(registry, wsdlPath);
+        for (Map.Entry<String, Map<String, String>> endpoint : endpoints.entrySet()) {
+            saveEndpoint(registry, endpoint.getKey(), wsdlPath, endpoint.getValue(), systemRegistry,
+                    environment, versionedDependencies, version, links);
         }
+    }
 
-        // saving soap12 endpoints
-        List<OMElement> soap12Elements;
-        try {
-            soap12Elements =  evaluateXPathToElements(SOAP12_ENDPOINT_EXPR, wsdlElement);
-        } catch (Exception e) {
-            String msg = "Error in evaluating xpath expressions to extract endpoints, wsdl path: " + wsdlPath + ".";
-            log.error(msg, e);
-            throw new RegistryException(msg, e);
-        }
-        for (OMElement soap12Element: soap12Elements) {
-            String locationUrl = soap12Element.getAttributeValue(new QName(LOCATION_ATTR));
-            Map<String, String> properties = new HashMap<String, String>();
-            properties.put(CommonConstants.SOAP12_ENDPOINT_ATTRIBUTE, "true");
-            saveEndpoint(registry, locationUrl, wsdlPath, properties, systemRegistry,environment,dependencies,version);
+    /**
+     * Groups the endpoints of the given WSDL by address, so that an address exposed by several
+     * ports is saved once with the attributes of all of them.
+     *
+     * @return the endpoint attributes, keyed by address.
+     */
+    private static Map<String, Map<String, String>> getEndpointProperties(Definition wsdlDefinition) {
+        Map<String, Map<String, String>> endpoints = new LinkedHashMap<String, Map<String, String>>();
+        for (String[] endpoint : getEndpoints(wsdlDefinition)) {
+            Map<String, String> properties = endpoints.get(endpoint[0]);
+            if (properties == null) {
+                properties = new HashMap<String, String>();
+                endpoints.put(endpoint[0], properties);
+            }
+            properties.put(endpoint[1], "true");
         }
+        return endpoints;
+    }
 
-        // saving http endpoints
-        List<OMElement> httpElements;
-        try {
-            httpElements =  evaluateXPathToElements(HTTP_ENDPOINT_EXPR, wsdlElement);
-        } catch (Exception e) {
-            String msg = "Error in evaluating xpath expressions to extract endpoints, wsdl path: " + wsdlPath + ".";
-            log.error(msg, e);
-            throw new RegistryException(msg, e);
-        }
-        for (OMElement httpElement: httpElements) {
-            String locationUrl = httpElement.getAttributeValue(new QName(LOCATION_ATTR));
-            Map<String, String> properties = new HashMap<String, String>();
-            properties.put(CommonConstants.HTTP_ENDPOINT_ATTRIBUTE, "true");
-            saveEndpoint(registry, locationUrl, wsdlPath, properties, systemRegistry,environment,dependencies,version);
+    /**
+     * Indexes the dependencies that are versioned endpoints, of the form
+     * <code>base/n.n.n/name</code>, by their path without the version segment.
+     *
+     * @return the dependency paths, keyed by their unversioned path.
+     */
+    private static Map<String, String> getVersionedDependencies(List<String> dependencies) {
+        Map<String, String> versionedDependencies = new HashMap<String, String>();
+        for (String dependency : dependencies) {
+            int nameIndex = dependency.lastIndexOf(RegistryConstants.PATH_SEPARATOR);
+            int versionIndex = nameIndex - VERSION_SEGMENT_LENGTH;
+            if (versionIndex < 1 || dependency.charAt(versionIndex - 1) != '/' ||
+                    !isVersion(dependency, versionIndex)) {
+                continue;
+            }
+            String key = dependency.substring(0, versionIndex) + dependency.substring(nameIndex + 1);
+            // as with a scan of the dependencies, the first match wins.
+            if (!versionedDependencies.containsKey(key)) {
+                versionedDependencies.put(key, dependency);
+            }
         }
+        return versionedDependencies;
     }
 
-    private static String[] wsdlPrefixes = {
-            "wsdl", "http://schemas.xmlsoap.org/wsdl/",
-            "wsdl2", "http://www.w3.org/ns/wsdl",
-            "xsd", "http://www.w3.org/2001/XMLSchema",
-            "soap", "http://schemas.xmlsoap.org/wsdl/soap/",
-            "soap12", "http://schemas.xmlsoap.org/wsdl/soap12/",
-            "http", "http://schemas.xmlsoap.org/wsdl/http/",
-            "s", CommonConstants.SERVICE_ELEMENT_NAMESPACE,
-    };
-
-    private static List<OMElement> evaluateXPathToElements(String expression,
-                                                           OMElement root) throws Exception {
-        String[] nsPrefixes = wsdlPrefixes;
-        AXIOMXPath xpathExpression = new AXIOMXPath(expression);
-
-        for (int j = 0; j < nsPrefixes.length; j ++) {
-            xpathExpression.addNamespace(nsPrefixes[j++], nsPrefixes[j]);
-        }
-        return (List<OMElement>)xpathExpression.selectNodes(root);
+    private static boolean isVersion(String path, int index) {
+        return Character.isDigit(path.charAt(index)) && Character.isDigit(path.charAt(index + 2)) &&
+                Character.isDigit(path.charAt(index + 4));
     }
 
-    private static OMElement buildOMElement(String content) throws Exception {
-        XMLStreamReader parser;
-        try {
-            parser = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(content));
-        } catch (XMLStreamException e) {
-            String msg = "Error in initializing the parser to build the OMElement.";
-            throw new Exception(msg, e);
+    /**
+     * Returns the associations of the WSDL at the given path, so that the links to its endpoints
+     * are added only when missing.
+     */
+    private static Set<String> getLinks(Registry registry, String wsdlPath)
+            throws RegistryException {
+        Set<String> links = new HashSet<String>();
+        Association[] associations =
+                ImportSession.getSession().getReadCache().getAllAssociations(registry, wsdlPath);
+        if (associations != null) {
+            for (Association association : associations) {
+                links.add(getLinkKey(association.getSourcePath(), association.getDestinationPath(),
+                        association.getAssociationType()));
+            }
         }
+        return links;
+    }
 
-        //create the builder
-        StAXOMBuilder builder = new StAXOMBuilder(parser);
-        //get the root element (in this case the envelope)
+    private static String getLinkKey(String sourcePath, String destinationPath, String type) {
+        return type + "|" + sourcePath + "|" + destinationPath;
+    }
 
-        return builder.getDocumentElement();
+    /**
+     * Collects the SOAP 1.1, SOAP 1.2 and HTTP addresses of the ports of the services defined in
+     * the given WSDL, in a single pass over its object model.
+     *
+     * @return pairs of the address location and the endpoint attribute of its kind.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<String[]> getEndpoints(Definition wsdlDefinition) {
+        List<String[]> endpoints = new ArrayList<String[]>();
+        if (wsdlDefinition == null || wsdlDefinition.getServices() == null) {
+            return endpoints;
+        }
+        for (Object service : wsdlDefinition.getServices().values()) {
+            Map<Object, Port> ports = ((Service) service).getPorts();
+            if (ports == null) {
+                continue;
+            }
+            for (Port port : ports.values()) {
+                List<ExtensibilityElement> elements = port.getExtensibilityElements();
+                if (elements == null) {
+                    continue;
+                }
+                for (ExtensibilityElement element : elements) {
+                    String location = null;
+                    String attribute = null;
+                    if (element instanceof SOAPAddress) {
+                        location = ((SOAPAddress) element).getLocationURI();
+                        attribute = CommonConstants.SOAP11_ENDPOINT_ATTRIBUTE;
+                    } else if (element instanceof SOAP12Address) {
+                        location = ((SOAP12Address) element).getLocationURI();
+                        attribute = CommonConstants.SOAP12_ENDPOINT_ATTRIBUTE;
+                    } else if (element instanceof HTTPAddress) {
+                        location = ((HTTPAddress) element).getLocationURI();
+                        attribute = CommonConstants.HTTP_ENDPOINT_ATTRIBUTE;
+                    } else if (element instanceof UnknownExtensibilityElement &&
+                            ADDRESS_ELEMENT.equals(element.getElementType().getLocalPart())) {
+                        // an address read without the corresponding extension registered.
+                        attribute = addressAttributes.get(element.getElementType().getNamespaceURI());
+                        if (attribute != null) {
+                            location = ((UnknownExtensibilityElement) element).getElement()
+                                    .getAttribute(LOCATION_ATTR);
+                        }
+                    }
+                    if (location != null && location.length() > 0) {
+                        endpoints.add(new String[] {location, attribute});
+                    }
+                }
+            }
+        }
+        return endpoints;
     }
 
     private static void saveEndpoint(Registry registry, String url,
                                    String associatedPath, Map<String, String> properties,
-                                   Registry systemRegistry,String environment,List<String> dependencies,String version) throws RegistryException {
+                                   Registry systemRegistry,String environment,
+                                   Map<String, String> versionedDependencies, String version,
+                                   Set<String> links) throws RegistryException {
         String urlToPath = deriveEndpointFromUrl(url);
 
         String endpointAbsoluteBasePath = RegistryUtils.getAbsolutePath(registry.getRegistryContext(),
                 environment);
-        if (!systemRegistry.resourceExists(endpointAbsoluteBasePath)) {
-            systemRegistry.put(endpointAbsoluteBasePath, systemRegistry.newCollection());
+        RegistryReadCache readCache = ImportSession.getSession().getReadCache();
+        if (!readCache.resourceExists(systemRegistry, endpointAbsoluteBasePath)) {
+            readCache.put(systemRegistry, endpointAbsoluteBasePath, systemRegistry.newCollection());
         }
 
         String prefix = urlToPath.substring(0,urlToPath.lastIndexOf(RegistryConstants.PATH_SEPARATOR) +1 );
         String name = urlToPath.replace(prefix,"");
 
-        String regex = endpointAbsoluteBasePath + prefix + "[\\d].[\\d].[\\d]" + RegistryConstants.PATH_SEPARATOR + name;
-
-        for (String dependency : dependencies) {
-            if(dependency.matches(regex)){
-                String newRelativePath =  RegistryUtils.getRelativePathToOriginal(dependency,
-                        org.wso2.carbon.registry.core.RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH );
-                saveEndpointValues(registry, url, associatedPath, properties, systemRegistry, newRelativePath, dependency);
-                return;
-            }
+        String dependency = versionedDependencies.get(endpointAbsoluteBasePath + prefix + name);
+        if (dependency != null) {
+            String newRelativePath =  RegistryUtils.getRelativePathToOriginal(dependency,
+                    org.wso2.carbon.registry.core.RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH );
+            saveEndpointValues(registry, url, associatedPath, properties, systemRegistry,
+                    newRelativePath, dependency, endpointMediaType, links);
+            return;
         }
         String endpointAbsolutePath = environment + prefix + version + RegistryConstants.PATH_SEPARATOR + name;
         String relativePath = environment.substring(0,RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH.length())
                 + prefix + version + RegistryConstants.PATH_SEPARATOR + name;
 
-        saveEndpointValues(registry, url, associatedPath, properties, systemRegistry, relativePath, endpointAbsolutePath);
+        saveEndpointValues(registry, url, associatedPath, properties, systemRegistry, relativePath,
+                endpointAbsolutePath, endpointMediaType, links);
     }
     private static void saveEndpoint(Registry registry, String url,
                                    String associatedPath, Map<String, String> properties,
-                                   Registry systemRegistry) throws RegistryException {
+                                   Registry systemRegistry, String endpointLocation,
+                                   String endpointMediaType, Set<String> links)
+            throws RegistryException {
         String urlToPath = deriveEndpointFromUrl(url);
 
         String endpointAbsoluteBasePath = RegistryUtils.getAbsolutePath(registry.getRegistryContext(),
                 org.wso2.carbon.registry.core.RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH +
                 endpointLocation);
-        if (!systemRegistry.resourceExists(endpointAbsoluteBasePath)) {
-            systemRegistry.put(endpointAbsoluteBasePath, systemRegistry.newCollection());
+        RegistryReadCache readCache = ImportSession.getSession().getReadCache();
+        if (!readCache.resourceExists(systemRegistry, endpointAbsoluteBasePath)) {
+            readCache.put(systemRegistry, endpointAbsoluteBasePath, systemRegistry.newCollection());
         }
         if(endpointLocation.endsWith(RegistryConstants.PATH_SEPARATOR)){
             if(urlToPath.startsWith(RegistryConstants.PATH_SEPARATOR)){
@@ -223,16 +282,19 @@ public class EndpointUtils {
         String relativePath = endpointLocation + urlToPath;
         String endpointAbsolutePath = endpointAbsoluteBasePath + urlToPath;
 
-        saveEndpointValues(registry, url, associatedPath, properties, systemRegistry, relativePath, endpointAbsolutePath);
+        saveEndpointValues(registry, url, associatedPath, properties, systemRegistry, relativePath,
+                endpointAbsolutePath, endpointMediaType, links);
     }
 
     private static void saveEndpointValues(Registry registry, String url, String associatedPath
             , Map<String, String> properties, Registry systemRegistry, String relativePath
-            , String endpointAbsolutePath) throws RegistryException {
+            , String endpointAbsolutePath, String endpointMediaType, Set<String> links)
+            throws RegistryException {
+        RegistryReadCache readCache = ImportSession.getSession().getReadCache();
         Resource resource;
         String endpointId = null;
-        if (registry.resourceExists(endpointAbsolutePath)) {
-            resource = registry.get(endpointAbsolutePath);
+        if (readCache.resourceExists(registry, endpointAbsolutePath)) {
+            resource = readCache.get(registry, endpointAbsolutePath);
             endpointId = resource.getProperty(CommonConstants.ARTIFACT_ID_PROP_KEY);
         } else {
             resource = registry.newResource();
@@ -245,26 +307,33 @@ public class EndpointUtils {
             resource.setProperty(CommonConstants.ARTIFACT_ID_PROP_KEY, endpointId);
         }
 
-        CommonUtil.addGovernanceArtifactEntryWithRelativeValues(
-                systemRegistry, endpointId, relativePath);
+        ImportSession.getSession().addIndexEntry(systemRegistry, endpointId, relativePath);
 
         boolean propertiesChanged = false;
         if (properties != null) {
             for (Map.Entry<String, String> e : properties.entrySet()) {
-                propertiesChanged = true;
-                resource.setProperty(e.getKey(), e.getValue());
+                if (!e.getValue().equals(resource.getProperty(e.getKey()))) {
+                    propertiesChanged = true;
+                    resource.setProperty(e.getKey(), e.getValue());
+                }
             }
         }
 
         if (endpointIdCreated || propertiesChanged) {
             // this will be definitely false for a brand new resource
             resource.setMediaType(endpointMediaType);
-            registry.put(endpointAbsolutePath, resource);
+            readCache.put(registry, endpointAbsolutePath, resource);
             // we need to create a version here.
         }
 
-        registry.addAssociation(associatedPath, endpointAbsolutePath, CommonConstants.DEPENDS);
-        registry.addAssociation(endpointAbsolutePath, associatedPath, CommonConstants.USED_BY);
+        if (links.add(getLinkKey(associatedPath, endpointAbsolutePath, CommonConstants.DEPENDS))) {
+            readCache.addAssociation(registry, associatedPath, endpointAbsolutePath,
+                    CommonConstants.DEPENDS);
+        }
+        if (links.add(getLinkKey(endpointAbsolutePath, associatedPath, CommonConstants.USED_BY))) {
+            readCache.addAssociation(registry, endpointAbsolutePath, associatedPath,
+                    CommonConstants.USED_BY);
+        }
     }
 
     /**
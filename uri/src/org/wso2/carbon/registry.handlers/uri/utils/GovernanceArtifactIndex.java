@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.wso2.carbon.governance.api.util.GovernanceConstants;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.RegistryConstants;
+import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+import org.wso2.carbon.registry.extensions.utils.CommonUtil;
+
+import java.util.Map;
+
+/**
+ * Writes entries to the governance artifact index, which maps the ids of the governance
+ * artifacts to the locations of their documents.
+ */
+public class GovernanceArtifactIndex {
+
+    private static final String INDEX_PATH = RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH +
+            GovernanceConstants.GOVERNANCE_ARTIFACT_INDEX_PATH;
+    private static final String LOCK_PATH = INDEX_PATH + ".lock";
+    private static final String LOCKED_AT_PROPERTY = "lockedAt";
+
+    /**
+     * Adds the given entries to the index with a single write. The index is read and written as a
+     * whole, so the lock resource of the index is written first. The database then holds the lock
+     * of that resource until the transaction of the caller ends, and a writer in any other
+     * transaction, on this node or another one, waits for it before reading the index. No writer
+     * therefore reads an index that another one is about to overwrite. The write runs in a
+     * transaction of its own when the caller has none.
+     *
+     * @param registry the registry holding the index.
+     * @param entries  the artifact ids mapped to the locations of their documents.
+     * @throws RegistryException if the index could not be updated.
+     */
+    public static void addEntries(Registry registry, Map<String, String> entries)
+            throws RegistryException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        boolean lockAcquired = false;
+        if (CommonUtil.isUpdateLockAvailable()) {
+            CommonUtil.acquireUpdateLock();
+            lockAcquired = true;
+        }
+        try {
+            // joins the transaction of the caller, if there is one.
+            registry.beginTransaction();
+            boolean committed = false;
+            try {
+                lockIndex(registry);
+                Resource index = registry.get(INDEX_PATH);
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    index.setProperty(entry.getKey(), entry.getValue());
+                }
+                registry.put(INDEX_PATH, index);
+                registry.commitTransaction();
+                committed = true;
+            } finally {
+                if (!committed) {
+                    registry.rollbackTransaction();
+                }
+            }
+        } finally {
+            if (lockAcquired) {
+                CommonUtil.releaseUpdateLock();
+            }
+        }
+    }
+
+    /**
+     * Writes the lock resource of the index, which takes the lock of its row in the database until
+     * the current transaction ends.
+     */
+    private static void lockIndex(Registry registry) throws RegistryException {
+        Resource lock = registry.resourceExists(LOCK_PATH) ? registry.get(LOCK_PATH) :
+                registry.newResource();
+        lock.setProperty(LOCKED_AT_PROPERTY, Long.toString(System.currentTimeMillis()));
+        registry.put(LOCK_PATH, lock);
+    }
+}
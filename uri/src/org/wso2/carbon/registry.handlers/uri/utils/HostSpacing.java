@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Spaces the requests made to each host by a minimum delay. A request that comes too early waits
+ * for its turn, and requests to the same host are served in the order they asked for a turn.
+ */
+public class HostSpacing {
+
+    private final long delay;
+    private final Map<String, Long> nextRequestTimes = new HashMap<String, Long>();
+
+    /**
+     * @param delay the minimum delay between two requests to the same host, in milliseconds.
+     */
+    public HostSpacing(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Sleeps until a request to the host of the given URL is allowed.
+     *
+     * @param url the URL to be requested.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void waitForTurn(String url) throws InterruptedException {
+        String host;
+        try {
+            host = new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return;
+        }
+        if (host == null || host.length() == 0) {
+            return;
+        }
+        long waitTime;
+        synchronized (nextRequestTimes) {
+            long now = System.currentTimeMillis();
+            long requestTime = now;
+            Long nextRequestTime = nextRequestTimes.get(host);
+            if (nextRequestTime != null && nextRequestTime > requestTime) {
+                requestTime = nextRequestTime;
+            }
+            nextRequestTimes.put(host, requestTime + delay);
+            waitTime = requestTime - now;
+        }
+        if (waitTime > 0) {
+            Thread.sleep(waitTime);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks the documents of an import graph while it is being traversed: the documents that have
+ * been visited, which stops the traversal at cycles, and the resource names allocated to the
+ * documents, which must be unique within the graph. Both are hashed, so that checking a document
+ * or a name does not depend on the size of the graph.
+ * <p/>
+ * The graph does not order the documents itself. The processors keep them in insertion ordered
+ * maps, which already hold each document after the documents it imports, and persist them in that
+ * order on the importing thread, to which the registry transaction of the import is bound.
+ *
+ * @param <T> the type of the information kept for each document.
+ */
+public class ImportGraph<T> {
+
+    private Set<String> visitedDocuments = new HashSet<String>();
+    private Set<String> allocatedNames = new HashSet<String>();
+    private Map<String, T> documentsByName = new HashMap<String, T>();
+    private int nameIndex = 0;
+
+    /**
+     * Marks the document at the given URI as visited.
+     *
+     * @param uri the URI of the document.
+     */
+    public void visit(String uri) {
+        visitedDocuments.add(uri);
+    }
+
+    public boolean isVisited(String uri) {
+        return visitedDocuments.contains(uri);
+    }
+
+    public boolean isNameAllocated(String name) {
+        return allocatedNames.contains(name);
+    }
+
+    /**
+     * Returns the next index to be appended to a name that is already allocated. Indexes are
+     * shared by all names of the graph, so a suffix is never handed out twice.
+     *
+     * @return the next index.
+     */
+    public int nextNameIndex() {
+        return ++nameIndex;
+    }
+
+    /**
+     * Allocates the given name.
+     *
+     * @param name     the name.
+     * @param document the information of the document the name is allocated to, or null if the
+     *                 name is only reserved.
+     */
+    public void allocateName(String name, T document) {
+        allocatedNames.add(name);
+        if (document != null) {
+            documentsByName.put(name, document);
+        }
+    }
+
+    /**
+     * Returns the document that the given name is allocated to.
+     *
+     * @param name the name.
+     * @return the document, or null if the name is not allocated or only reserved.
+     */
+    public T getDocument(String name) {
+        return documentsByName.get(name);
+    }
+}
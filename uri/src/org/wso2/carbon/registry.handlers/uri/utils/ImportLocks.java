@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks that serialize the imports of the same source URL, while imports of unrelated
+ * URLs run in parallel. An import that finds its stripe taken waits for it in arrival order.
+ */
+public class ImportLocks {
+
+    private static final int STRIPES = 64;
+    private static final long DEFAULT_TIMEOUT = 10 * 60 * 1000;
+
+    private static final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock(true);
+        }
+    }
+
+    private static volatile long timeout = DEFAULT_TIMEOUT;
+
+    public static void setTimeout(long timeout) {
+        ImportLocks.timeout = timeout;
+    }
+
+    public static long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Acquires the lock of the given source URL, waiting for an import of the same URL to
+     * complete. Each successful call must be paired with a call to {@link #release(String)}.
+     *
+     * @param sourceURL the source URL of the import.
+     * @throws RegistryException if the lock could not be acquired within the configured timeout.
+     */
+    public static void acquire(String sourceURL) throws RegistryException {
+        try {
+            if (!getLock(sourceURL).tryLock(timeout, TimeUnit.MILLISECONDS)) {
+                throw new RegistryException("Timed out waiting for another import of " + sourceURL +
+                        " to complete");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RegistryException("Interrupted while waiting for another import of " +
+                    sourceURL + " to complete", e);
+        }
+    }
+
+    public static void release(String sourceURL) {
+        getLock(sourceURL).unlock();
+    }
+
+    private static ReentrantLock getLock(String sourceURL) {
+        int hash = normalize(sourceURL).hashCode();
+        // spread the higher bits, as URLs of the same host share long prefixes.
+        hash ^= (hash >>> 16);
+        return locks[(hash & 0x7fffffff) % STRIPES];
+    }
+
+    /**
+     * Normalizes the given URL, so that spellings of the same URL that differ only in the case of
+     * the scheme and host, a default port or a fragment share a lock.
+     */
+    static String normalize(String sourceURL) {
+        try {
+            URI uri = new URI(sourceURL).normalize();
+            String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase() : null;
+            String host = uri.getHost() != null ? uri.getHost().toLowerCase() : null;
+            int port = uri.getPort();
+            if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443)) {
+                port = -1;
+            }
+            if (host == null) {
+                return new URI(scheme, uri.getSchemeSpecificPart(), null).toString();
+            }
+            return new URI(scheme, uri.getUserInfo(), host, port, uri.getPath(), uri.getQuery(),
+                    null).toString();
+        } catch (Exception e) {
+            return sourceURL;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import com.ibm.wsdl.util.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.net.URI;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Discovers the import graph of a WSDL or schema and downloads all documents of the graph into
+ * an {@link ImportSession} ahead of parsing. Every fetched document is scanned for WSDL imports,
+ * for schema imports, includes and redefines, and for remote policy references, which the WSDL
+ * importer stores as policy artifacts of their own. The referenced documents are fetched
+ * concurrently on a bounded thread pool. The WSDL and schema readers then find the whole graph
+ * in the session, so their (sequential) traversal, naming and cycle detection stay unchanged.
+ */
+public class ImportPrefetcher {
+    private static final Log log = LogFactory.getLog(ImportPrefetcher.class);
+
+    private static final String WSDL_NAMESPACE = "http://schemas.xmlsoap.org/wsdl/";
+    private static final String XSD_NAMESPACE = "http://www.w3.org/2001/XMLSchema";
+    private static final String POLICY_REFERENCE_TAG = "PolicyReference";
+
+    private static final int DEFAULT_POOL_SIZE = 8;
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    static {
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private static ThreadPoolExecutor executor = createExecutor(DEFAULT_POOL_SIZE);
+
+    public static synchronized void setPoolSize(int poolSize) {
+        if (poolSize > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(poolSize);
+            executor.setCorePoolSize(poolSize);
+        } else {
+            executor.setCorePoolSize(poolSize);
+            executor.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * Fetches the document at the given location and, transitively, all documents it imports or
+     * includes. Failures are only logged, since the reader will report them when it reaches the
+     * failing document.
+     *
+     * @param session  the import session to fill.
+     * @param location the location of the root document.
+     */
+    public static void prefetch(ImportSession session, String location) {
+        if (!isRemote(location)) {
+            return;
+        }
+        CompletionService<List<String>> completionService =
+                new ExecutorCompletionService<List<String>>(executor);
+        Set<String> visited = new HashSet<String>();
+        visited.add(location);
+        completionService.submit(new FetchTask(session, location));
+        int pending = 1;
+        while (pending > 0) {
+            List<String> references;
+            try {
+                references = completionService.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.debug("Unable to prefetch an imported document", e.getCause());
+                references = Collections.emptyList();
+            }
+            pending--;
+            for (String reference : references) {
+                if (visited.add(reference)) {
+                    completionService.submit(new FetchTask(session, reference));
+                    pending++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the locations of the documents of the import graph of the given document that have
+     * been read into the given session, including the given document itself. Nothing is fetched.
+     *
+     * @param session  the import session holding the documents.
+     * @param location the location of the root document.
+     * @return the locations, or an empty set if the root document has not been read.
+     */
+    public static Set<String> getGraph(ImportSession session, String location) {
+        Set<String> graph = new TreeSet<String>();
+        LinkedList<String> pending = new LinkedList<String>();
+        pending.add(location);
+        while (!pending.isEmpty()) {
+            String next = pending.removeFirst();
+            RemoteDocument document = session.findDocument(next);
+            if (document == null || !graph.add(next)) {
+                continue;
+            }
+            try {
+                pending.addAll(findReferences(document));
+            } catch (XMLStreamException e) {
+                log.debug("Unable to scan " + next + " for imported documents", e);
+            }
+        }
+        return graph;
+    }
+
+    static boolean isRemote(String location) {
+        String lowerCaseLocation = location.toLowerCase();
+        return lowerCaseLocation.startsWith("http:") || lowerCaseLocation.startsWith("https:");
+    }
+
+    /**
+     * Finds the absolute locations of the documents referred by the given document.
+     */
+    private static List<String> findReferences(RemoteDocument document) throws XMLStreamException {
+        List<String> references = new ArrayList<String>();
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(document.getInputStream());
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String namespace = reader.getNamespaceURI();
+                String localName = reader.getLocalName();
+                String reference = null;
+                if (WSDL_NAMESPACE.equals(namespace) && WsdlProcessor.IMPORT_TAG.equals(localName)) {
+                    reference = resolveWSDLReference(document.getURL(),
+                            reader.getAttributeValue(null, "location"));
+                } else if (XSD_NAMESPACE.equals(namespace) &&
+                        (WsdlProcessor.IMPORT_TAG.equals(localName) ||
+                                WsdlProcessor.INCLUDE_TAG.equals(localName) ||
+                                "redefine".equals(localName))) {
+                    reference = resolveSchemaReference(document.getURL(),
+                            reader.getAttributeValue(null, "schemaLocation"));
+                } else if (POLICY_REFERENCE_TAG.equals(localName)) {
+                    // references within the document itself are not separate documents.
+                    String policyURI = reader.getAttributeValue(null, "URI");
+                    if (policyURI != null && !policyURI.startsWith("#")) {
+                        reference = policyURI;
+                    }
+                }
+                if (reference != null && isRemote(reference)) {
+                    references.add(reference);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return references;
+    }
+
+    // resolved in the same way as wsdl4j resolves the imports, so that the session is hit.
+    private static String resolveWSDLReference(String baseLocation, String location) {
+        if (location == null) {
+            return null;
+        }
+        try {
+            URL contextURL = StringUtils.getURL(null, baseLocation);
+            return StringUtils.getURL(contextURL, location).toString();
+        } catch (Exception e) {
+            log.debug("Unable to resolve " + location + " against " + baseLocation, e);
+            return null;
+        }
+    }
+
+    // resolved in the same way as XmlSchema resolves the imports, so that the session is hit.
+    private static String resolveSchemaReference(String baseLocation, String location) {
+        if (location == null) {
+            return null;
+        }
+        try {
+            return new URI(baseLocation).resolve(new URI(location)).toString();
+        } catch (Exception e) {
+            log.debug("Unable to resolve " + location + " against " + baseLocation, e);
+            return null;
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(int poolSize) {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(poolSize, poolSize,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "uri-import-prefetch-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    private static class FetchTask implements Callable<List<String>> {
+        private ImportSession session;
+        private String location;
+
+        private FetchTask(ImportSession session, String location) {
+            this.session = session;
+            this.location = location;
+        }
+
+        public List<String> call() throws Exception {
+            return findReferences(session.getDocument(location));
+        }
+    }
+}
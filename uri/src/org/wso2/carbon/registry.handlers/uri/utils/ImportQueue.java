@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded queue of URI imports that are run in the background on a fixed set of workers. The
+ * depth of the queue and the imports in flight are exposed through JMX, under
+ * {@link #OBJECT_NAME}.
+ */
+public class ImportQueue implements ImportQueueMBean {
+    private static final Log log = LogFactory.getLog(ImportQueue.class);
+
+    public static final String OBJECT_NAME = "org.wso2.carbon.registry.handlers.uri:type=ImportQueue";
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_CAPACITY = 1000;
+
+    private static final ImportQueue instance = new ImportQueue();
+
+    private ThreadPoolExecutor executor = createExecutor(DEFAULT_THREADS, DEFAULT_CAPACITY);
+    private final ScheduledExecutorService scheduler = createScheduler();
+    private Set<String> inFlightImports = Collections.synchronizedSet(new HashSet<String>());
+
+    private ImportQueue() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(this, objectName);
+            }
+        } catch (Exception e) {
+            log.warn("Unable to register the URI import queue MBean", e);
+        }
+    }
+
+    public static ImportQueue getInstance() {
+        return instance;
+    }
+
+    public synchronized void setThreads(int threads) {
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Replaces the queue with one of the given capacity. Imports already queued are still run.
+     *
+     * @param capacity the maximum number of imports waiting for a worker.
+     */
+    public synchronized void setCapacity(int capacity) {
+        ThreadPoolExecutor oldExecutor = executor;
+        executor = createExecutor(oldExecutor.getCorePoolSize(), capacity);
+        oldExecutor.shutdown();
+    }
+
+    /**
+     * Queues the given import.
+     *
+     * @param sourceURL the source URL of the import.
+     * @param task      the import.
+     * @return false if the queue is full, in which case the import is not run.
+     */
+    public boolean submit(final String sourceURL, final Runnable task) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    inFlightImports.add(sourceURL);
+                    try {
+                        task.run();
+                    } finally {
+                        inFlightImports.remove(sourceURL);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Queues the given import after the given delay. An import that finds the queue full is
+     * delayed again, so that a worker is not held while waiting.
+     *
+     * @param sourceURL the source URL of the import.
+     * @param task      the import.
+     * @param delay     the delay in milliseconds.
+     */
+    public void schedule(final String sourceURL, final Runnable task, final long delay) {
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                if (!submit(sourceURL, task)) {
+                    schedule(sourceURL, task, delay);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getInFlightCount() {
+        return inFlightImports.size();
+    }
+
+    public String[] getInFlightImports() {
+        synchronized (inFlightImports) {
+            return inFlightImports.toArray(new String[inFlightImports.size()]);
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, int capacity) {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(capacity),
+                new ThreadFactory() {
+                    private AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "uri-import-worker-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "uri-import-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
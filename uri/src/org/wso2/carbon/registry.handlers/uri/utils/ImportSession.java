@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.RegistryConstants;
+import org.wso2.carbon.registry.core.ResourceImpl;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+import org.wso2.carbon.registry.core.jdbc.handlers.RequestContext;
+import org.wso2.carbon.registry.core.utils.RegistryUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Holds the documents fetched while importing a single URI, so that each document is downloaded
+ * only once and the same buffer is handed to the WSDL reader, the schema reader and the
+ * validators. A session is bound to the importing thread between {@link #begin()} and
+ * {@link #end()}; nested imports on the same thread join the session of the outer import. The
+ * session also caches the registry reads of the import, and buffers the entries of the governance
+ * artifact index added by the import, so that the index is written once.
+ */
+public class ImportSession {
+
+    private static ThreadLocal<ImportSession> currentSession = new ThreadLocal<ImportSession>();
+
+    private Map<String, RemoteDocument> documents = new HashMap<String, RemoteDocument>();
+    private Map<String, String> indexEntries = new LinkedHashMap<String, String>();
+    private Map<String, String> artifactPaths = new HashMap<String, String>();
+    private RegistryReadCache readCache = new RegistryReadCache();
+    private List<ParsedSchemaCache.Entry> schemaLeases = new ArrayList<ParsedSchemaCache.Entry>();
+    private List<DeferredImport> deferredImports = new ArrayList<DeferredImport>();
+    private String rootURL;
+    private HostSpacing hostSpacing;
+    private int depth = 0;
+
+    /**
+     * Starts a session on the current thread, or joins the session that is already active. Each
+     * call must be paired with a call to {@link #end()}.
+     *
+     * @return the active session.
+     */
+    public static ImportSession begin() {
+        ImportSession session = currentSession.get();
+        if (session == null) {
+            session = new ImportSession();
+            currentSession.set(session);
+        }
+        if (session.depth > 0) {
+            // a nested import writes to the registry without going through the read cache.
+            session.readCache.clear();
+        }
+        session.depth++;
+        return session;
+    }
+
+    /**
+     * Leaves the session of the current thread, discarding it once the outermost import ends. The
+     * parsed schemas leased by the session are then returned to the cache.
+     */
+    public static void end() {
+        ImportSession session = currentSession.get();
+        if (session != null && --session.depth <= 0) {
+            currentSession.remove();
+            for (ParsedSchemaCache.Entry lease : session.schemaLeases) {
+                ParsedSchemaCache.getInstance().release(lease);
+            }
+            session.schemaLeases.clear();
+        } else if (session != null) {
+            session.readCache.clear();
+        }
+    }
+
+    /**
+     * Returns the session of the current thread, or a new detached session if no import is in
+     * progress.
+     *
+     * @return the import session.
+     */
+    public static ImportSession getSession() {
+        ImportSession session = currentSession.get();
+        return session != null ? session : new ImportSession();
+    }
+
+    /**
+     * Returns a detached session holding the documents read so far by this session, for work that
+     * goes on after the import has ended, such as a deferred validation.
+     *
+     * @return the detached session.
+     */
+    public ImportSession copyDocuments() {
+        ImportSession session = new ImportSession();
+        synchronized (documents) {
+            session.documents.putAll(documents);
+        }
+        return session;
+    }
+
+    /**
+     * Returns the document at the given URL, fetching it if it has not been read in this session.
+     *
+     * @param url the URL of the document.
+     * @return the document.
+     * @throws IOException if the document could not be read.
+     */
+    public RemoteDocument getDocument(String url) throws IOException {
+        return getDocument(url, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the document at the given URL as by {@link #getDocument(String)}, rejecting it as
+     * soon as it exceeds the given size.
+     *
+     * @param url     the URL of the document.
+     * @param maxSize the maximum size of the document in bytes.
+     * @return the document.
+     * @throws IOException if the document could not be read, or is too large.
+     */
+    public RemoteDocument getDocument(String url, long maxSize) throws IOException {
+        synchronized (documents) {
+            RemoteDocument document = documents.get(url);
+            if (document != null) {
+                if (document.getContent().length > maxSize) {
+                    throw new IOException("The document at " + url +
+                            " exceeds the maximum size of " + maxSize + " bytes");
+                }
+                return document;
+            }
+        }
+        if (hostSpacing != null) {
+            try {
+                hostSpacing.waitForTurn(url);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to fetch " + url);
+            }
+        }
+        RemoteDocument document = UriFetchCache.getInstance().fetch(url, maxSize);
+        synchronized (documents) {
+            documents.put(url, document);
+        }
+        return document;
+    }
+
+    /**
+     * Returns the document at the given URL if it has already been read in this session.
+     *
+     * @param url the URL of the document.
+     * @return the document, or null if it has not been read.
+     */
+    public RemoteDocument findDocument(String url) {
+        synchronized (documents) {
+            return documents.get(url);
+        }
+    }
+
+    /**
+     * Checks whether the import graph of the document at the given URL differs from the one
+     * recorded by an earlier import. The whole graph is read into this session, the cached
+     * documents being revalidated with their servers, so that the import that follows does not
+     * download them again.
+     *
+     * @param url         the URL of the root document.
+     * @param graphDigest the digest recorded by the earlier import, as computed by
+     *                    {@link #getDigest(String)}.
+     * @return true if the root document or any document it imports has been modified.
+     */
+    public boolean isGraphModified(String url, String graphDigest) {
+        ImportPrefetcher.prefetch(this, url);
+        return !graphDigest.equals(getDigest(url));
+    }
+
+    /**
+     * Computes a digest of the documents of the import graph of the given document, identifying
+     * that graph as a whole. Only the documents read in this session are covered, and the
+     * documents read for other parts of the import are not, so that each artifact of an import
+     * records the graph it was imported from.
+     *
+     * @param url the URL of the root document.
+     * @return the hex encoded digest, or null if the session is detached or has not read the
+     *         document.
+     */
+    public String getDigest(String url) {
+        if (!isActive()) {
+            return null;
+        }
+        Map<String, String> contentHashes = new TreeMap<String, String>();
+        for (String location : ImportPrefetcher.getGraph(this, url)) {
+            contentHashes.put(location, findDocument(location).getContentHash());
+        }
+        return computeDigest(contentHashes);
+    }
+
+    /**
+     * Computes a digest of all documents read in this session, identifying the import graph as a
+     * whole.
+     *
+     * @return the hex encoded digest, or null if the session is detached or has read nothing.
+     */
+    public String getDigest() {
+        if (!isActive()) {
+            return null;
+        }
+        Map<String, String> contentHashes = new TreeMap<String, String>();
+        synchronized (documents) {
+            for (Map.Entry<String, RemoteDocument> document : documents.entrySet()) {
+                contentHashes.put(document.getKey(), document.getValue().getContentHash());
+            }
+        }
+        return computeDigest(contentHashes);
+    }
+
+    private static String computeDigest(Map<String, String> contentHashes) {
+        if (contentHashes.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> contentHash : contentHashes.entrySet()) {
+            sb.append(contentHash.getKey()).append('\n').append(contentHash.getValue()).append('\n');
+        }
+        try {
+            return UriFetchCache.computeHash(sb.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 encoding is not supported", e);
+        }
+    }
+
+    /**
+     * Returns an input source for the given document, suitable to be handed to Xerces.
+     *
+     * @param url the URL of the document.
+     * @return the input source.
+     * @throws IOException if the document could not be read.
+     */
+    public XMLInputSource getXMLInputSource(String url) throws IOException {
+        return new XMLInputSource(null, url, null, getDocument(url).getInputStream(), null);
+    }
+
+    /**
+     * Creates a request context that carries the content of the given document instead of its
+     * URL, so that validators operating on a request context read the buffered document.
+     *
+     * @param requestContext the request context of the import.
+     * @param url            the URL of the document.
+     * @return the request context to be used for validation.
+     * @throws RegistryException if the document could not be read.
+     */
+    public RequestContext createValidationContext(RequestContext requestContext, String url)
+            throws RegistryException {
+        RequestContext validationContext = new RequestContext(requestContext.getRegistry(),
+                requestContext.getRepository(), requestContext.getVersionRepository());
+        validationContext.setResourcePath(requestContext.getResourcePath());
+        ResourceImpl resource = new ResourceImpl();
+        try {
+            resource.setContent(getDocument(url).getContent());
+        } catch (IOException e) {
+            throw new RegistryException("Unable to read the document at " + url, e);
+        }
+        validationContext.setResource(resource);
+        return validationContext;
+    }
+
+    /**
+     * Records the URL of the outermost import of this session, unless one is already recorded.
+     *
+     * @param url the URL being imported.
+     * @return true if the URL was recorded, in which case {@link #clearRootURL()} must be called
+     *         when its import ends.
+     */
+    public boolean setRootURL(String url) {
+        if (rootURL != null) {
+            return false;
+        }
+        rootURL = url;
+        return true;
+    }
+
+    public void clearRootURL() {
+        rootURL = null;
+    }
+
+    /**
+     * Returns the URL of the outermost import of this session.
+     *
+     * @return the URL, or null if no import has recorded it.
+     */
+    public String getRootURL() {
+        return rootURL;
+    }
+
+    /**
+     * Spaces the fetches of this session to each host with the given spacing.
+     *
+     * @param hostSpacing the spacing, or null for none.
+     */
+    public void setHostSpacing(HostSpacing hostSpacing) {
+        this.hostSpacing = hostSpacing;
+    }
+
+    /**
+     * Checks whether this session is bound to an import, rather than detached.
+     *
+     * @return true if an import is in progress.
+     */
+    public boolean isActive() {
+        return depth > 0;
+    }
+
+    void addSchemaLease(ParsedSchemaCache.Entry lease) {
+        schemaLeases.add(lease);
+    }
+
+    /**
+     * Returns the cache of the registry reads made by this import.
+     *
+     * @return the read cache.
+     */
+    public RegistryReadCache getReadCache() {
+        return readCache;
+    }
+
+    /**
+     * Records the path of the artifact stored for the document imported from the given URL.
+     *
+     * @param url  the URL of the document.
+     * @param path the path of the artifact, relative to the governance registry.
+     */
+    public void setArtifactPath(String url, String path) {
+        artifactPaths.put(url, path);
+    }
+
+    /**
+     * Returns the path of the artifact stored by this session for the document imported from the
+     * given URL.
+     *
+     * @param url the URL of the document.
+     * @return the path of the artifact, relative to the governance registry, or null.
+     */
+    public String getArtifactPath(String url) {
+        return artifactPaths.get(url);
+    }
+
+    /**
+     * Adds an entry to the governance artifact index. The entry is buffered until
+     * {@link #flushIndexEntries(Registry)} is called, unless the session is detached, in which
+     * case it is written right away.
+     *
+     * @param registry   the registry holding the index.
+     * @param artifactId the id of the artifact.
+     * @param location   the location of the document of the artifact.
+     * @throws RegistryException if the entry could not be written.
+     */
+    public void addIndexEntry(Registry registry, String artifactId, String location)
+            throws RegistryException {
+        if (depth == 0) {
+            GovernanceArtifactIndex.addEntries(registry,
+                    Collections.singletonMap(artifactId, location));
+            return;
+        }
+        synchronized (indexEntries) {
+            indexEntries.put(artifactId, location);
+        }
+    }
+
+    /**
+     * Adds an entry to the governance artifact index as by
+     * {@link #addIndexEntry(Registry, String, String)}, for an artifact stored at the given
+     * absolute path.
+     *
+     * @param registry   the registry holding the index.
+     * @param artifactId the id of the artifact.
+     * @param path       the absolute path of the artifact.
+     * @throws RegistryException if the entry could not be written.
+     */
+    public void addIndexEntryWithAbsolutePath(Registry registry, String artifactId, String path)
+            throws RegistryException {
+        addIndexEntry(registry, artifactId, RegistryUtils.getRelativePathToOriginal(path,
+                RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH));
+    }
+
+    /**
+     * Adds an import to run once the outermost import of this session has ended and released its
+     * lock, such as that of a policy referred by a WSDL. An import that would run under the lock
+     * of the outer import could deadlock with another import holding its own lock. The import is
+     * run right away if the session is detached.
+     *
+     * @param deferredImport the import.
+     * @throws RegistryException if the import is run right away and fails.
+     */
+    public void addDeferredImport(DeferredImport deferredImport) throws RegistryException {
+        if (depth == 0) {
+            deferredImport.run();
+            return;
+        }
+        synchronized (deferredImports) {
+            deferredImports.add(deferredImport);
+        }
+    }
+
+    /**
+     * Removes the deferred imports of this session, to be run by the caller.
+     *
+     * @return the deferred imports, in the order in which they were added.
+     */
+    public List<DeferredImport> takeDeferredImports() {
+        synchronized (deferredImports) {
+            List<DeferredImport> imports = new ArrayList<DeferredImport>(deferredImports);
+            deferredImports.clear();
+            return imports;
+        }
+    }
+
+    /**
+     * Writes the buffered entries of the governance artifact index.
+     *
+     * @param registry the registry holding the index.
+     * @throws RegistryException if the entries could not be written.
+     */
+    public void flushIndexEntries(Registry registry) throws RegistryException {
+        Map<String, String> entries;
+        synchronized (indexEntries) {
+            entries = new LinkedHashMap<String, String>(indexEntries);
+            indexEntries.clear();
+        }
+        GovernanceArtifactIndex.addEntries(registry, entries);
+    }
+
+    /**
+     * An import deferred until the outermost import of a session has ended.
+     */
+    public interface DeferredImport {
+        void run() throws RegistryException;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.util.AXIOMUtil;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+import org.wso2.carbon.registry.extensions.utils.CommonUtil;
+
+import javax.xml.namespace.QName;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Reads and writes the import status fields in the overview of URI artifacts.
+ */
+public class ImportStatus {
+
+    public static final String PENDING = "Pending";
+    public static final String IMPORTED = "Imported";
+    public static final String FAILED = "Failed";
+
+    private static final String OVERVIEW_ELEMENT = "overview";
+    private static final String STATUS_ELEMENT = "status";
+    private static final String DURATION_ELEMENT = "duration";
+    private static final String ERROR_ELEMENT = "error";
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    /**
+     * Returns the status of the given URI artifact resource.
+     *
+     * @param resource the URI artifact resource.
+     * @return the status, or null if the artifact has none.
+     * @throws RegistryException if the content of the resource is not a valid URI artifact.
+     */
+    public static String getStatus(Resource resource) throws RegistryException {
+        OMElement artifactElement = parse(resource);
+        String namespace = getNamespace(artifactElement);
+        OMElement status = getOverview(artifactElement, namespace).getFirstChildWithName(
+                new QName(namespace, STATUS_ELEMENT));
+        return status != null ? status.getText() : null;
+    }
+
+    /**
+     * Sets the status fields of the given URI artifact resource.
+     *
+     * @param resource the URI artifact resource.
+     * @param status   the status.
+     * @param duration the duration of the import in milliseconds, or -1 if not known.
+     * @param error    the error of a failed import, or null.
+     * @throws RegistryException if the content of the resource is not a valid URI artifact.
+     */
+    public static void setStatus(Resource resource, String status, long duration, String error)
+            throws RegistryException {
+        OMElement artifactElement = parse(resource);
+        String namespace = getNamespace(artifactElement);
+        OMElement overview = getOverview(artifactElement, namespace);
+        setField(overview, namespace, STATUS_ELEMENT, status);
+        setField(overview, namespace, DURATION_ELEMENT, duration < 0 ? null : Long.toString(duration));
+        if (error != null && error.length() > MAX_ERROR_LENGTH) {
+            error = error.substring(0, MAX_ERROR_LENGTH - 3) + "...";
+        }
+        setField(overview, namespace, ERROR_ELEMENT, error);
+        resource.setContent(artifactElement.toString());
+    }
+
+    /**
+     * Updates the status fields of the URI artifact stored at the given path. The artifact is
+     * stored while holding the update lock, so that it is not imported again.
+     *
+     * @param registry the registry holding the artifact.
+     * @param path     the path of the artifact.
+     * @param status   the status.
+     * @param duration the duration of the import in milliseconds, or -1 if not known.
+     * @param error    the error of a failed import, or null.
+     * @throws RegistryException if the artifact could not be updated.
+     */
+    public static void updateStatus(Registry registry, String path, String status, long duration,
+                                    String error) throws RegistryException {
+        if (!registry.resourceExists(path)) {
+            return;
+        }
+        Resource resource = registry.get(path);
+        setStatus(resource, status, duration, error);
+        boolean lockAcquired = false;
+        if (CommonUtil.isUpdateLockAvailable()) {
+            CommonUtil.acquireUpdateLock();
+            lockAcquired = true;
+        }
+        try {
+            registry.put(path, resource);
+        } finally {
+            if (lockAcquired) {
+                CommonUtil.releaseUpdateLock();
+            }
+        }
+    }
+
+    private static OMElement parse(Resource resource) throws RegistryException {
+        try {
+            return AXIOMUtil.stringToOM(getContent(resource));
+        } catch (Exception e) {
+            throw new RegistryException("Failed to parse content of URI", e);
+        }
+    }
+
+    private static String getNamespace(OMElement artifactElement) {
+        return artifactElement.getNamespace() != null ?
+                artifactElement.getNamespace().getNamespaceURI() : null;
+    }
+
+    private static OMElement getOverview(OMElement artifactElement, String namespace)
+            throws RegistryException {
+        OMElement overview = artifactElement.getFirstChildWithName(
+                new QName(namespace, OVERVIEW_ELEMENT));
+        if (overview == null) {
+            throw new RegistryException("Failed to parse content of URI: the artifact has no overview");
+        }
+        return overview;
+    }
+
+    private static String getContent(Resource resource) throws RegistryException {
+        Object content = resource.getContent();
+        if (content instanceof byte[]) {
+            try {
+                return new String((byte[]) content, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException("UTF-8 encoding is not supported", e);
+            }
+        }
+        return (String) content;
+    }
+
+    private static void setField(OMElement overview, String namespace, String name, String value) {
+        OMElement field = overview.getFirstChildWithName(new QName(namespace, name));
+        if (value == null) {
+            if (field != null) {
+                field.detach();
+            }
+            return;
+        }
+        if (field == null) {
+            field = overview.getOMFactory().createOMElement(name, overview.getNamespace());
+            overview.addChild(field);
+        }
+        field.setText(value);
+    }
+}
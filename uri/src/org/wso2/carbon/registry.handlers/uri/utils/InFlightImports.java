@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the imports in progress, keyed by URI type, normalized source URL and the path of the
+ * artifact, so that a request to import a URI into an artifact that is already being imported
+ * joins the running import and reuses its outcome instead of importing the same document again.
+ * Artifacts at different paths that point at the same URI are imported separately.
+ */
+public class InFlightImports {
+
+    private static final ConcurrentMap<String, Flight> flights =
+            new ConcurrentHashMap<String, Flight>();
+
+    /**
+     * Starts an import of the given URI, or joins the import of it that is already running. The
+     * leader of a flight that begins it again takes another hold on it, and the flight ends once
+     * every hold has been ended.
+     *
+     * @param type      the URI type.
+     * @param sourceURL the source URL.
+     * @param path      the path of the artifact being imported.
+     * @return the flight of the import. The caller runs the import only if it is the leader of
+     *         the flight, and otherwise waits for its outcome.
+     */
+    public static Flight begin(String type, String sourceURL, String path) {
+        String key = type + " " + ImportLocks.normalize(sourceURL) + " " + path;
+        Flight flight = new Flight(key);
+        flight.leader = Thread.currentThread();
+        Flight runningFlight = flights.putIfAbsent(key, flight);
+        if (runningFlight == null) {
+            return flight;
+        }
+        if (runningFlight.isLeader()) {
+            runningFlight.holds++;
+        }
+        return runningFlight;
+    }
+
+    /**
+     * An import that other requests may join.
+     */
+    public static class Flight {
+        private String key;
+        private volatile Thread leader;
+        // only read and written by the leader.
+        private int holds = 1;
+        private CountDownLatch done = new CountDownLatch(1);
+        private volatile String actualPath;
+        private volatile RegistryException error;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        public boolean isLeader() {
+            return leader == Thread.currentThread();
+        }
+
+        /**
+         * Records the outcome of the import and releases the requests that joined it. Must be
+         * called by the leader once the import has ended, and only takes effect when the last
+         * hold of the leader is ended.
+         *
+         * @param actualPath the path at which the document was imported, or null on failure.
+         * @param error      the failure of the import, or null on success.
+         */
+        public void end(String actualPath, RegistryException error) {
+            if (--holds > 0) {
+                return;
+            }
+            this.actualPath = actualPath;
+            this.error = error;
+            flights.remove(key, this);
+            done.countDown();
+        }
+
+        /**
+         * Waits for the leader to end the import.
+         *
+         * @param timeout the maximum time to wait in milliseconds.
+         * @return the path at which the document was imported.
+         * @throws RegistryException if the import failed, or did not end within the timeout.
+         */
+        public String await(long timeout) throws RegistryException {
+            try {
+                if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new RegistryException("Timed out waiting for another import of " +
+                            key + " to complete");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RegistryException("Interrupted while waiting for another import of " +
+                        key + " to complete", e);
+            }
+            if (error != null) {
+                throw new RegistryException("The import of " + key + " that this request joined failed",
+                        error);
+            }
+            return actualPath;
+        }
+    }
+}
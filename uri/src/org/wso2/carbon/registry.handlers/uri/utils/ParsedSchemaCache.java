@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.ws.commons.schema.XmlSchema;
+import org.apache.ws.commons.schema.XmlSchemaExternal;
+import org.apache.ws.commons.schema.XmlSchemaObjectCollection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the parsed schemas of earlier imports, so that schemas imported over and over, such as
+ * common type libraries, are not parsed and resolved again while none of their documents has
+ * changed. A schema is keyed by its source and the content hash of its document, and also records
+ * the content hashes of the documents it imports or includes.
+ * <p/>
+ * The importers rewrite the locations of the imports and includes of the schemas they store, so a
+ * cached schema is leased to one import at a time. The lease is held by the import session, and
+ * when the session ends the original locations are restored and the schema is cached again.
+ */
+public class ParsedSchemaCache {
+
+    private static final int DEFAULT_MAX_SIZE = 100;
+
+    private static final ParsedSchemaCache instance = new ParsedSchemaCache();
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private ParsedSchemaCache() {
+    }
+
+    public static ParsedSchemaCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sets the maximum number of cached schemas. A size of zero disables the cache.
+     *
+     * @param maxSize the maximum number of cached schemas.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * Leases the cached schema with the given key to the given session, if its document and the
+     * documents it imports are unchanged.
+     *
+     * @param session     the session of the import.
+     * @param key         the key of the schema.
+     * @param contentHash the content hash of the document of the schema.
+     * @return the schema, or null if it is not cached or one of its documents has changed.
+     */
+    public XmlSchema lease(ImportSession session, String key, String contentHash) {
+        if (!session.isActive()) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            // removing the entry gives this import exclusive use of the schema.
+            entry = entries.remove(key);
+        }
+        if (entry == null || !entry.contentHash.equals(contentHash) || !entry.isCurrent(session)) {
+            return null;
+        }
+        session.addSchemaLease(entry);
+        return entry.schema;
+    }
+
+    /**
+     * Adds a schema that has just been parsed. The schema is leased to the given session, and is
+     * cached when the session ends.
+     *
+     * @param session        the session of the import.
+     * @param key            the key of the schema.
+     * @param contentHash    the content hash of the document of the schema.
+     * @param schema         the schema.
+     * @param documentHashes the content hashes of the documents read to parse the schema, keyed by
+     *                       their location, or null if some were not read through the session.
+     */
+    public void add(ImportSession session, String key, String contentHash, XmlSchema schema,
+                    Map<String, String> documentHashes) {
+        if (!session.isActive() || documentHashes == null || maxSize <= 0) {
+            return;
+        }
+        session.addSchemaLease(new Entry(key, contentHash, schema, documentHashes));
+    }
+
+    /**
+     * Restores the locations of the imports and includes of a leased schema, and caches it again.
+     *
+     * @param entry the leased entry.
+     */
+    void release(Entry entry) {
+        entry.restoreLocations();
+        synchronized (this) {
+            if (maxSize > 0) {
+                entries.put(entry.key, entry);
+                evict();
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * A parsed schema, with the hashes of its documents and the original locations of its imports
+     * and includes.
+     */
+    static class Entry {
+        private final String key;
+        private final String contentHash;
+        private final XmlSchema schema;
+        private final Map<String, String> documentHashes;
+        private final List<XmlSchemaExternal> externals = new ArrayList<XmlSchemaExternal>();
+        private final List<String> locations = new ArrayList<String>();
+
+        private Entry(String key, String contentHash, XmlSchema schema,
+                      Map<String, String> documentHashes) {
+            this.key = key;
+            this.contentHash = contentHash;
+            this.schema = schema;
+            this.documentHashes = documentHashes;
+            recordLocations(schema, new HashSet<XmlSchema>());
+        }
+
+        private void recordLocations(XmlSchema schema, Set<XmlSchema> visited) {
+            if (!visited.add(schema)) {
+                return;
+            }
+            XmlSchemaObjectCollection includes = schema.getIncludes();
+            if (includes == null) {
+                return;
+            }
+            for (Iterator iterator = includes.getIterator(); iterator.hasNext();) {
+                Object include = iterator.next();
+                if (include instanceof XmlSchemaExternal) {
+                    XmlSchemaExternal external = (XmlSchemaExternal) include;
+                    externals.add(external);
+                    locations.add(external.getSchemaLocation());
+                    if (external.getSchema() != null) {
+                        recordLocations(external.getSchema(), visited);
+                    }
+                }
+            }
+        }
+
+        private void restoreLocations() {
+            for (int i = 0; i < externals.size(); i++) {
+                externals.get(i).setSchemaLocation(locations.get(i));
+            }
+        }
+
+        private boolean isCurrent(ImportSession session) {
+            for (Map.Entry<String, String> documentHash : documentHashes.entrySet()) {
+                try {
+                    if (!session.getDocument(documentHash.getKey()).getContentHash()
+                            .equals(documentHash.getValue())) {
+                        return false;
+                    }
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.wso2.carbon.registry.core.Association;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Caches the registry reads of a single import, so that the existence checks, resources and
+ * associations looked up over and over while storing the documents of an import are read only
+ * once. The entries are kept apart for each registry, as the registries an import goes through
+ * may not see the same resources, for example when only one of them is chrooted. Writes made
+ * through the cache drop the entries of the written path in all registries.
+ * <p/>
+ * A resource returned by {@link #get(Registry, String)} is shared by the callers that read the
+ * same path, so a caller that modifies it must write it back with
+ * {@link #put(Registry, String, Resource)}. The cache is used by the importing thread only.
+ */
+public class RegistryReadCache {
+
+    private Map<Registry, Entries> entries = new IdentityHashMap<Registry, Entries>();
+
+    /**
+     * The entries read through one registry.
+     */
+    private static class Entries {
+        private Map<String, Boolean> existence = new HashMap<String, Boolean>();
+        private Map<String, Resource> resources = new HashMap<String, Resource>();
+        private Map<String, Association[]> associations = new HashMap<String, Association[]>();
+    }
+
+    public boolean resourceExists(Registry registry, String path) throws RegistryException {
+        Entries registryEntries = getEntries(registry);
+        Boolean exists = registryEntries.existence.get(path);
+        if (exists == null) {
+            exists = registry.resourceExists(path);
+            registryEntries.existence.put(path, exists);
+        }
+        return exists;
+    }
+
+    public Resource get(Registry registry, String path) throws RegistryException {
+        Entries registryEntries = getEntries(registry);
+        Resource resource = registryEntries.resources.get(path);
+        if (resource == null) {
+            resource = registry.get(path);
+            registryEntries.resources.put(path, resource);
+            registryEntries.existence.put(path, Boolean.TRUE);
+        }
+        return resource;
+    }
+
+    public String put(Registry registry, String path, Resource resource) throws RegistryException {
+        String actualPath = registry.put(path, resource);
+        // the stored resource may differ from the given one, so it is read again if needed.
+        removeResource(path);
+        getEntries(registry).existence.put(path, Boolean.TRUE);
+        if (actualPath != null && !actualPath.equals(path)) {
+            removeResource(actualPath);
+            getEntries(registry).existence.put(actualPath, Boolean.TRUE);
+        }
+        return actualPath;
+    }
+
+    public Association[] getAllAssociations(Registry registry, String path)
+            throws RegistryException {
+        return getAssociations(registry, path, null);
+    }
+
+    public Association[] getAssociations(Registry registry, String path, String type)
+            throws RegistryException {
+        Map<String, Association[]> associations = getEntries(registry).associations;
+        String key = getAssociationKey(path, type);
+        if (associations.containsKey(key)) {
+            return associations.get(key);
+        }
+        Association[] pathAssociations = type == null ? registry.getAllAssociations(path) :
+                registry.getAssociations(path, type);
+        associations.put(key, pathAssociations);
+        return pathAssociations;
+    }
+
+    public void addAssociation(Registry registry, String sourcePath, String targetPath,
+                               String type) throws RegistryException {
+        registry.addAssociation(sourcePath, targetPath, type);
+        removeAssociations(sourcePath);
+        removeAssociations(targetPath);
+    }
+
+    public void removeAssociation(Registry registry, String sourcePath, String targetPath,
+                                  String type) throws RegistryException {
+        registry.removeAssociation(sourcePath, targetPath, type);
+        removeAssociations(sourcePath);
+        removeAssociations(targetPath);
+    }
+
+    /**
+     * Drops all entries, for when the registry may have been modified without going through the
+     * cache.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private Entries getEntries(Registry registry) {
+        Entries registryEntries = entries.get(registry);
+        if (registryEntries == null) {
+            registryEntries = new Entries();
+            entries.put(registry, registryEntries);
+        }
+        return registryEntries;
+    }
+
+    private void removeResource(String path) {
+        for (Entries registryEntries : entries.values()) {
+            registryEntries.existence.remove(path);
+            registryEntries.resources.remove(path);
+        }
+    }
+
+    private void removeAssociations(String path) {
+        String prefix = path + "|";
+        for (Entries registryEntries : entries.values()) {
+            for (Iterator<String> keys = registryEntries.associations.keySet().iterator();
+                 keys.hasNext();) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    private static String getAssociationKey(String path, String type) {
+        return path + "|" + (type != null ? type : "");
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * The content of a document fetched from a remote URI, together with the hash of that content
+ * and the HTTP validators returned by the server.
+ */
+public class RemoteDocument {
+    private String url;
+    private byte[] content;
+    private String contentHash;
+    private String eTag;
+    private String lastModified;
+
+    public RemoteDocument(String url, byte[] content, String contentHash, String eTag,
+                          String lastModified) {
+        this.url = url;
+        this.content = content;
+        this.contentHash = contentHash;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    public String getURL() {
+        return url;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(content);
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.impl.xs.SchemaGrammar;
+import org.apache.xerces.impl.xs.XSDDescription;
+import org.apache.xerces.util.URI;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.apache.xerces.xs.StringList;
+import org.wso2.carbon.context.CarbonContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the schema grammars compiled by earlier validations of each tenant, so that the grammars
+ * imported by many schemas are compiled once. A grammar is keyed by its namespace and location,
+ * and records the content hashes of the documents it was compiled from, including those of the
+ * grammars it imports. It is dropped as soon as one of these documents has changed. Validations
+ * see the pool through a {@link Stage}, which only adds the grammars of a successful validation.
+ */
+public class SchemaGrammarPool {
+
+    private static final int DEFAULT_MAX_SIZE = 200;
+
+    private static final Map<Integer, SchemaGrammarPool> pools =
+            new ConcurrentHashMap<Integer, SchemaGrammarPool>();
+
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private SchemaGrammarPool() {
+    }
+
+    /**
+     * Returns the grammar pool of the current tenant.
+     *
+     * @return the grammar pool.
+     */
+    public static SchemaGrammarPool getPool() {
+        return getPool(CarbonContext.getCurrentContext().getTenantId());
+    }
+
+    /**
+     * Returns the grammar pool of the given tenant.
+     *
+     * @param tenantId the id of the tenant.
+     * @return the grammar pool.
+     */
+    public static SchemaGrammarPool getPool(int tenantId) {
+        SchemaGrammarPool pool = pools.get(tenantId);
+        if (pool == null) {
+            synchronized (pools) {
+                pool = pools.get(tenantId);
+                if (pool == null) {
+                    pool = new SchemaGrammarPool();
+                    pools.put(tenantId, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Sets the maximum number of grammars kept for each tenant. A size of zero disables the pool.
+     *
+     * @param maxSize the maximum number of grammars.
+     */
+    public static void setMaxSize(int maxSize) {
+        SchemaGrammarPool.maxSize = maxSize;
+        for (SchemaGrammarPool pool : pools.values()) {
+            synchronized (pool) {
+                pool.evict();
+            }
+        }
+    }
+
+    /**
+     * Opens a view of this pool for a single validation.
+     *
+     * @param session the session used to check whether the documents of a grammar have changed.
+     * @return the view, to be handed to the Xerces grammar loader.
+     */
+    public Stage stage(ImportSession session) {
+        return new Stage(session);
+    }
+
+    private Grammar retrieve(XMLGrammarDescription description, ImportSession session) {
+        String key = getKey(description);
+        if (key == null) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> documentHash : entry.documentHashes.entrySet()) {
+            String contentHash;
+            try {
+                contentHash = session.getDocument(documentHash.getKey()).getContentHash();
+            } catch (IOException e) {
+                contentHash = null;
+            }
+            if (!documentHash.getValue().equals(contentHash)) {
+                synchronized (this) {
+                    if (entries.get(key) == entry) {
+                        entries.remove(key);
+                    }
+                }
+                return null;
+            }
+        }
+        return entry.grammar;
+    }
+
+    private void add(List<Grammar> grammars, ImportSession session) {
+        if (maxSize <= 0) {
+            return;
+        }
+        for (Grammar grammar : grammars) {
+            if (!(grammar instanceof SchemaGrammar)) {
+                continue;
+            }
+            String key = getKey(grammar.getGrammarDescription());
+            if (key == null) {
+                continue;
+            }
+            synchronized (this) {
+                Entry entry = entries.get(key);
+                if (entry != null && entry.grammar == grammar) {
+                    continue;
+                }
+            }
+            Map<String, String> documentHashes = new HashMap<String, String>();
+            if (!collectDocumentHashes((SchemaGrammar) grammar, session, documentHashes,
+                    new HashSet<SchemaGrammar>())) {
+                continue;
+            }
+            synchronized (this) {
+                entries.put(key, new Entry(grammar, documentHashes));
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Collects the content hashes of the documents of the given grammar and of the grammars it
+     * imports.
+     *
+     * @return false if a document was not read through the given session.
+     */
+    private static boolean collectDocumentHashes(SchemaGrammar grammar, ImportSession session,
+                                                 Map<String, String> documentHashes,
+                                                 Set<SchemaGrammar> visited) {
+        if (!visited.add(grammar)) {
+            return true;
+        }
+        StringList locations = grammar.getDocumentLocations();
+        for (int i = 0; locations != null && i < locations.getLength(); i++) {
+            RemoteDocument document = session.findDocument(locations.item(i));
+            if (document == null) {
+                return false;
+            }
+            documentHashes.put(locations.item(i), document.getContentHash());
+        }
+        if (grammar.getImportedGrammars() != null) {
+            for (Object importedGrammar : grammar.getImportedGrammars()) {
+                if (importedGrammar instanceof SchemaGrammar && !collectDocumentHashes(
+                        (SchemaGrammar) importedGrammar, session, documentHashes, visited)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String getKey(XMLGrammarDescription description) {
+        if (description == null ||
+                !XMLGrammarDescription.XML_SCHEMA.equals(description.getGrammarType())) {
+            return null;
+        }
+        String location = description.getExpandedSystemId();
+        if (location == null) {
+            // imports are looked up by their first location hint, relative to the importing schema.
+            String literalLocation = description.getLiteralSystemId();
+            String[] locationHints = ((XSDDescription) description).getLocationHints();
+            if (locationHints != null && locationHints.length > 0) {
+                literalLocation = locationHints[0];
+            }
+            if (literalLocation == null) {
+                return null;
+            }
+            try {
+                location = XMLEntityManager.expandSystemId(literalLocation,
+                        description.getBaseSystemId(), false);
+            } catch (URI.MalformedURIException e) {
+                return null;
+            }
+        }
+        String namespace = description.getNamespace();
+        return (namespace != null ? namespace : "") + "|" + location;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * The view of the pool used by a single validation. Grammars are read from the pool, while
+     * the grammars compiled by the validation are held back until {@link #commit()} is called.
+     */
+    public class Stage implements XMLGrammarPool {
+        private final ImportSession session;
+        private final List<Grammar> compiledGrammars = new ArrayList<Grammar>();
+
+        private Stage(ImportSession session) {
+            this.session = session;
+        }
+
+        public Grammar[] retrieveInitialGrammarSet(String grammarType) {
+            return new Grammar[0];
+        }
+
+        public void cacheGrammars(String grammarType, Grammar[] grammars) {
+            if (XMLGrammarDescription.XML_SCHEMA.equals(grammarType)) {
+                for (Grammar grammar : grammars) {
+                    compiledGrammars.add(grammar);
+                }
+            }
+        }
+
+        public Grammar retrieveGrammar(XMLGrammarDescription description) {
+            return retrieve(description, session);
+        }
+
+        public void lockPool() {
+        }
+
+        public void unlockPool() {
+        }
+
+        public void clear() {
+            compiledGrammars.clear();
+        }
+
+        /**
+         * Adds the grammars compiled by the validation to the pool.
+         */
+        public void commit() {
+            add(compiledGrammars, session);
+            compiledGrammars.clear();
+        }
+    }
+
+    private static class Entry {
+        private final Grammar grammar;
+        private final Map<String, String> documentHashes;
+
+        private Entry(Grammar grammar, Map<String, String> documentHashes) {
+            this.grammar = grammar;
+            this.documentHashes = documentHashes;
+        }
+    }
+}
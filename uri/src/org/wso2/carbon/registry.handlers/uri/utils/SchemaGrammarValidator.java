@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.xerces.parsers.XMLGrammarPreparser;
+import org.apache.xerces.xni.XMLResourceIdentifier;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.parser.XMLEntityResolver;
+import org.apache.xerces.xni.parser.XMLErrorHandler;
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.apache.xerces.xni.parser.XMLParseException;
+import org.wso2.carbon.registry.extensions.handlers.utils.WSDLUtils;
+import org.wso2.carbon.registry.extensions.utils.WSDLValidationInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Validates XML schemas as the registry's schema validator does, but compiles them against the
+ * {@link SchemaGrammarPool} of the tenant, so that the grammars they import are not compiled
+ * again for every validation. The imported documents are read through the import session.
+ */
+public class SchemaGrammarValidator {
+
+    private static final String NAMESPACES_FEATURE = "http://xml.org/sax/features/namespaces";
+    private static final String VALIDATION_FEATURE = "http://xml.org/sax/features/validation";
+    private static final String SCHEMA_VALIDATION_FEATURE =
+            "http://apache.org/xml/features/validation/schema";
+    private static final String SCHEMA_FULL_CHECKING_FEATURE =
+            "http://apache.org/xml/features/validation/schema-full-checking";
+
+    /**
+     * Validates the given schema against the pool of the current tenant. The grammars compiled by
+     * the validation are added to the pool only if the schema is valid.
+     *
+     * @param session      the session used to read the imported documents.
+     * @param schemaSource the schema.
+     * @return the outcome of the validation.
+     */
+    public static WSDLValidationInfo validate(ImportSession session, XMLInputSource schemaSource) {
+        return validate(session, SchemaGrammarPool.getPool(), schemaSource);
+    }
+
+    /**
+     * Validates the given schema against the pool of the given tenant, for validations that do
+     * not run in the context of the tenant.
+     *
+     * @param session      the session used to read the imported documents.
+     * @param tenantId     the id of the tenant.
+     * @param schemaSource the schema.
+     * @return the outcome of the validation.
+     */
+    public static WSDLValidationInfo validate(ImportSession session, int tenantId,
+                                              XMLInputSource schemaSource) {
+        return validate(session, SchemaGrammarPool.getPool(tenantId), schemaSource);
+    }
+
+    private static WSDLValidationInfo validate(final ImportSession session, SchemaGrammarPool pool,
+                                               XMLInputSource schemaSource) {
+        XMLGrammarPreparser preparser = new XMLGrammarPreparser();
+        preparser.registerPreparser(XMLGrammarDescription.XML_SCHEMA, null);
+        preparser.setFeature(NAMESPACES_FEATURE, true);
+        preparser.setFeature(VALIDATION_FEATURE, true);
+        preparser.setFeature(SCHEMA_VALIDATION_FEATURE, true);
+        preparser.setFeature(SCHEMA_FULL_CHECKING_FEATURE, true);
+        SchemaGrammarPool.Stage grammarPool = pool.stage(session);
+        preparser.setGrammarPool(grammarPool);
+        preparser.setEntityResolver(new XMLEntityResolver() {
+            public XMLInputSource resolveEntity(XMLResourceIdentifier identifier)
+                    throws IOException {
+                String url = identifier.getExpandedSystemId();
+                return url != null ? session.getXMLInputSource(url) : null;
+            }
+        });
+        final List<String> messages = new ArrayList<String>();
+        preparser.setErrorHandler(new XMLErrorHandler() {
+            public void warning(String domain, String key, XMLParseException exception) {
+            }
+
+            public void error(String domain, String key, XMLParseException exception) {
+                messages.add(exception.getMessage());
+            }
+
+            public void fatalError(String domain, String key, XMLParseException exception) {
+                messages.add(exception.getMessage());
+            }
+        });
+
+        try {
+            preparser.preparseGrammar(XMLGrammarDescription.XML_SCHEMA, schemaSource);
+        } catch (XNIException e) {
+            // a fatal error has already been reported to the error handler.
+            if (messages.isEmpty()) {
+                messages.add(e.getMessage());
+            }
+        } catch (IOException e) {
+            messages.add(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+
+        WSDLValidationInfo validationInfo = new WSDLValidationInfo();
+        for (String message : messages) {
+            validationInfo.addValidationMessage(message);
+        }
+        if (messages.isEmpty()) {
+            validationInfo.setStatus(WSDLUtils.VALID);
+            grammarPool.commit();
+        } else {
+            validationInfo.setStatus(WSDLUtils.INVALID);
+        }
+        return validationInfo;
+    }
+}
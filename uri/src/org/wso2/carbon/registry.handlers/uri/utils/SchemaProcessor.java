@@ -17,17 +17,15 @@
 package org.wso2.carbon.registry.handlers.uri.utils;
 
 import com.ibm.wsdl.extensions.schema.SchemaImportImpl;
-import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ws.commons.schema.XmlSchema;
 import org.apache.ws.commons.schema.XmlSchemaCollection;
 import org.apache.ws.commons.schema.XmlSchemaExternal;
 import org.apache.ws.commons.schema.XmlSchemaObjectCollection;
-import org.wso2.carbon.CarbonException;
 import org.wso2.carbon.governance.api.generic.GenericArtifactManager;
 import org.wso2.carbon.governance.api.generic.dataobjects.GenericArtifact;
-import org.wso2.carbon.governance.api.util.GovernanceConstants;
 import org.wso2.carbon.registry.core.*;
 import org.wso2.carbon.registry.core.exceptions.RegistryException;
 import org.wso2.carbon.registry.core.internal.RegistryCoreServiceComponent;
@@ -39,9 +37,12 @@ import org.wso2.carbon.registry.extensions.utils.CommonConstants;
 import org.wso2.carbon.registry.extensions.utils.CommonUtil;
 import org.wso2.carbon.registry.extensions.utils.WSDLUtil;
 import org.wso2.carbon.registry.extensions.utils.WSDLValidationInfo;
-import org.wso2.carbon.utils.CarbonUtils;
-import org.xml.sax.InputSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
 import javax.wsdl.Types;
 import javax.wsdl.extensions.schema.Schema;
@@ -54,22 +55,23 @@ public class SchemaProcessor {
     private Registry registry;
     private Registry systemRegistry;
     private Registry systemGovernanceRegistry;
-    private List<String> processedSchemas;
-    private List<String> visitedSchemas;
+    private ImportGraph<SchemaInfo> schemaGraph;
     private Map<String, SchemaInfo> schemas;
     private List<Association> associations;
     private String baseURI = null;
     private WSDLValidationInfo validationInfo;
-    private static final String SCHEMA_VALIDATION_MESSAGE = "Schema Validation Message ";
-    private static final String SCHEMA_STATUS = "Schema Validation";
+    private ImportSession session;
+    private RegistryReadCache readCache;
+    private String addedArtifactPath;
+    private String masterArtifactPath;
+    static final String SCHEMA_VALIDATION_MESSAGE = "Schema Validation Message ";
+    static final String SCHEMA_STATUS = "Schema Validation";
     private boolean useOriginalSchema;
 
     private String resourceName = "";
 
     private static final Log log = LogFactory.getLog(SchemaProcessor.class);
 
-    private int i;
-
     public SchemaProcessor(RequestContext requestContext, WSDLValidationInfo validationInfo) {
         this.registry = requestContext.getRegistry();
         try {
@@ -78,10 +80,10 @@ public class SchemaProcessor {
         } catch (RegistryException ignore) {
             this.systemRegistry = null;
         }
-        i = 0;
+        session = ImportSession.getSession();
+        readCache = session.getReadCache();
         schemas = new LinkedHashMap<String, SchemaInfo> ();
-        processedSchemas = new ArrayList<String>();
-        visitedSchemas = new ArrayList<String>();
+        schemaGraph = new ImportGraph<SchemaInfo>();
         associations = new ArrayList<Association>();
         this.validationInfo = validationInfo;
     }
@@ -101,15 +103,11 @@ public class SchemaProcessor {
                                        String sourceURL) throws RegistryException {
         resourceName = resourcePath.substring(resourcePath.lastIndexOf(RegistryConstants.PATH_SEPARATOR) + 1);
 
-        XmlSchemaCollection xmlSchemaCollection = new XmlSchemaCollection();
-        xmlSchemaCollection.setBaseUri(sourceURL);
         baseURI = sourceURL;
-        InputSource inputSource = new InputSource(sourceURL);
+        ImportPrefetcher.prefetch(session, sourceURL);
 
         try {
-            // Here we assue schema is correct. Schema validation is beyond our scope, so we don't
-            // bother with a ValidationEventHandler.
-            XmlSchema xmlSchema = xmlSchemaCollection.read(inputSource, null);
+            XmlSchema xmlSchema = readSchema(sourceURL);
             evaluateSchemasRecursively(xmlSchema, null, false, true);
         } catch (RuntimeException re) {
             String msg = "Could not read the XML Schema Definition file. ";
@@ -118,6 +116,9 @@ public class SchemaProcessor {
                 log.error(msg, re);
                 throw new RegistryException(msg);
             }
+            if (re instanceof org.apache.ws.commons.schema.XmlSchemaException) {
+                msg += re.getMessage();
+            }
             throw new RegistryException(msg, re);
         }
         updateSchemaPaths(commonLocation);
@@ -126,6 +127,7 @@ public class SchemaProcessor {
 
         Resource metaResource = requestContext.getResource();
         String path = saveSchemaToRegistry(requestContext, resourcePath, metaResource); // should depend on the central location / relative location flag
+        session.setArtifactPath(sourceURL, masterArtifactPath);
         persistAssociations(path);
         return path;
     }
@@ -143,7 +145,12 @@ public class SchemaProcessor {
             Schema schema;
             Object extensionObject;
             XmlSchema xmlSchema;
-            XmlSchemaCollection xmlSchemaCollection;
+            // only a WSDL read through the session has a known content.
+            RemoteDocument wsdlDocument = session.isActive() ?
+                    session.findDocument(wsdlDocumentBaseURI) : null;
+            String contentHash = wsdlDocument != null ? wsdlDocument.getContentHash() : null;
+            String schemaKey = wsdlDocumentBaseURI + "#schema";
+            int schemaIndex = 0;
             wsdlDocumentBaseURI = wsdlDocumentBaseURI.substring(0, wsdlDocumentBaseURI.lastIndexOf("/") + 1);
             for (Object extensibleElement : extensibleElements) {
                 extensionObject = extensibleElement;
@@ -159,16 +166,82 @@ public class SchemaProcessor {
                                     new File(schemaImport.getReferencedSchema().getDocumentBaseURI()).toString());
                         }
                     }
-                    xmlSchemaCollection = new XmlSchemaCollection();
-                    /* setting base URI in the collection to load relative schemas */
-                    xmlSchemaCollection.setBaseUri(wsdlDocumentBaseURI);
-                    xmlSchema = xmlSchemaCollection.read(schema.getElement());
+                    xmlSchema = readInlineSchema(schema, wsdlDocumentBaseURI,
+                            schemaKey + schemaIndex++, contentHash);
                     evaluateSchemasRecursively(xmlSchema, dependencies, true, false);
                 }
             }
         }
     }
 
+    /**
+     * Reads the schema at the given URL, reusing the schema parsed by an earlier import if none of
+     * its documents has changed since.
+     */
+    private XmlSchema readSchema(String sourceURL) {
+        String contentHash = getContentHash(sourceURL);
+        XmlSchema xmlSchema = contentHash == null ? null :
+                ParsedSchemaCache.getInstance().lease(session, sourceURL, contentHash);
+        if (xmlSchema != null) {
+            return xmlSchema;
+        }
+        XmlSchemaCollection xmlSchemaCollection = new XmlSchemaCollection();
+        xmlSchemaCollection.setBaseUri(sourceURL);
+        CachedSchemaResolver schemaResolver = new CachedSchemaResolver(session);
+        xmlSchemaCollection.setSchemaResolver(schemaResolver);
+        // Here we assue schema is correct. Schema validation is beyond our scope, so we don't
+        // bother with a ValidationEventHandler.
+        try {
+            xmlSchema = xmlSchemaCollection.read(schemaResolver.getInputSource(sourceURL), null);
+        } finally {
+            schemaResolver.detach();
+        }
+        if (contentHash != null) {
+            ParsedSchemaCache.getInstance().add(session, sourceURL, contentHash, xmlSchema,
+                    schemaResolver.getDocumentHashes());
+        }
+        return xmlSchema;
+    }
+
+    /**
+     * Reads a schema inlined in a WSDL, reusing the schema parsed by an earlier import if neither
+     * the WSDL nor the documents imported by the schema have changed since.
+     */
+    private XmlSchema readInlineSchema(Schema schema, String baseURI, String schemaKey,
+                                       String contentHash) {
+        XmlSchema xmlSchema = contentHash == null ? null :
+                ParsedSchemaCache.getInstance().lease(session, schemaKey, contentHash);
+        if (xmlSchema != null) {
+            return xmlSchema;
+        }
+        XmlSchemaCollection xmlSchemaCollection = new XmlSchemaCollection();
+        /* setting base URI in the collection to load relative schemas */
+        xmlSchemaCollection.setBaseUri(baseURI);
+        CachedSchemaResolver schemaResolver = new CachedSchemaResolver(session);
+        xmlSchemaCollection.setSchemaResolver(schemaResolver);
+        try {
+            xmlSchema = xmlSchemaCollection.read(schema.getElement());
+        } finally {
+            schemaResolver.detach();
+        }
+        if (contentHash != null) {
+            ParsedSchemaCache.getInstance().add(session, schemaKey, contentHash, xmlSchema,
+                    schemaResolver.getDocumentHashes());
+        }
+        return xmlSchema;
+    }
+
+    private String getContentHash(String url) {
+        if (!session.isActive()) {
+            return null;
+        }
+        try {
+            return session.getDocument(url).getContentHash();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     private void evaluateSchemasRecursively(
             XmlSchema xmlSchema,
             ArrayList<String> dependencies,
@@ -178,7 +251,7 @@ public class SchemaProcessor {
         SchemaInfo schemaInfo = new SchemaInfo();
         schemaInfo.setMasterSchema(isMasterSchema);
         // set this as an visited schema to stop infinite traversal
-        visitedSchemas.add(xmlSchema.getSourceURI());
+        schemaGraph.visit(xmlSchema.getSourceURI());
         if (includes != null) {
             Object externalComponent;
             XmlSchemaExternal xmlSchemaExternal;
@@ -197,7 +270,7 @@ public class SchemaProcessor {
                             schemaInfo.getSchemaDependencies().add(sourceURI);
                         }
 
-                        if (!visitedSchemas.contains(sourceURI)) {
+                        if (!schemaGraph.isVisited(sourceURI)) {
                             evaluateSchemasRecursively(
                                     innerSchema,
                                     null,   /* passing null is safe since we are passing isWSDLSchema = false */
@@ -220,26 +293,24 @@ public class SchemaProcessor {
 
             fileNameToSave = fileNameToSave.replace("?xsd=", ".");
             String originalName = fileNameToSave;
-            while (processedSchemas.contains(fileNameToSave)) {
-                fileNameToSave = fileNameToSave.substring(0, fileNameToSave.indexOf(".")) + ++i + ".xsd";
+            while (schemaGraph.isNameAllocated(fileNameToSave)) {
+                fileNameToSave = fileNameToSave.substring(0, fileNameToSave.indexOf(".")) +
+                        schemaGraph.nextNameIndex() + ".xsd";
             }
 
             // If this was the master schema, and we already have a schema by that name, simply swap
             // proposed names. But in the process, validate whether the schema that already exists
             // on the list is not a master schema, and thereby avoid any recursion.
             if (schemaInfo.isMasterSchema() && !originalName.equals(fileNameToSave)) {
-                for (SchemaInfo schema : schemas.values()) {
-                    if (schema.getProposedResourceName().equals(originalName)) {
-                        if (!schema.isMasterSchema()) {
-                            schema.setProposedResourceName(fileNameToSave);
-                            fileNameToSave = originalName;
-                        }
-                        break;
-                    }
+                SchemaInfo schema = schemaGraph.getDocument(originalName);
+                if (schema != null && !schema.isMasterSchema()) {
+                    schema.setProposedResourceName(fileNameToSave);
+                    schemaGraph.allocateName(fileNameToSave, schema);
+                    fileNameToSave = originalName;
                 }
             }
             // add this entry to the processed schema map
-            processedSchemas.add(fileNameToSave);
+            schemaGraph.allocateName(fileNameToSave, schemaInfo);
             //schemaInfo.setProposedRegistryURL(fileNameToSave);
             schemaInfo.setProposedResourceName(fileNameToSave);
             schemaInfo.setSchema((xmlSchema));
@@ -274,8 +345,8 @@ public class SchemaProcessor {
      */
     private void updateSchemaPaths(String commonSchemaLocation) throws RegistryException {
         /* i.e. ROOT/commonSchemaLocation */
-        if (!systemRegistry.resourceExists(commonSchemaLocation)) {
-            systemRegistry.put(commonSchemaLocation, systemRegistry.newCollection());
+        if (!readCache.resourceExists(systemRegistry, commonSchemaLocation)) {
+            readCache.put(systemRegistry, commonSchemaLocation, systemRegistry.newCollection());
         }
         for (SchemaInfo schemaInfo: schemas.values()) {
             XmlSchema schema = schemaInfo.getSchema();
@@ -289,8 +360,8 @@ public class SchemaProcessor {
     }
     private void updateSchemaPaths(String commonSchemaLocation,String version,List dependencies) throws RegistryException {
         /* i.e. ROOT/commonSchemaLocation */
-        if (!systemRegistry.resourceExists(commonSchemaLocation)) {
-            systemRegistry.put(commonSchemaLocation, systemRegistry.newCollection());
+        if (!readCache.resourceExists(systemRegistry, commonSchemaLocation)) {
+            readCache.put(systemRegistry, commonSchemaLocation, systemRegistry.newCollection());
         }
         outerLoop:
         for (SchemaInfo schemaInfo: schemas.values()) {
@@ -391,14 +462,11 @@ public class SchemaProcessor {
         String path = resourcePath;
         for (SchemaInfo schemaInfo: schemas.values()) {
             XmlSchema schema = schemaInfo.getSchema();
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            schema.write(byteArrayOutputStream);
-            byte[] xsdContent = byteArrayOutputStream.toByteArray();
 
             String schemaPath = schemaInfo.getProposedRegistryURL();
             Resource xsdResource;
-            if (metaResource != null && registry.resourceExists(schemaPath)) {
-                xsdResource = registry.get(schemaPath);
+            if (metaResource != null && readCache.resourceExists(registry, schemaPath)) {
+                xsdResource = readCache.get(registry, schemaPath);
             } else {
                 xsdResource = new ResourceImpl();
                 if (metaResource != null) {
@@ -424,25 +492,6 @@ public class SchemaProcessor {
             }
             xsdResource.setMediaType("application/x-xsd+xml");
 
-            if (this.useOriginalSchema) {
-                try {
-                    xsdResource.setContent(CarbonUtils.getBytesFromFile(
-                            new File(new URI(schemaInfo.getOriginalURL()))));
-                } catch (CarbonException e) {
-                    String errMsg = "Trying to store original schema in registry failed while " +
-                                    "generating the content from original schema.";
-                    log.error(errMsg, e);
-                    throw new RegistryException(errMsg, e);
-                } catch (URISyntaxException e) {
-                    String errMsg = "Trying to store original schema in registry failed due to error " +
-                                    "occurred in file url:" + schemaInfo.getOriginalURL();
-                    log.error(errMsg, e);
-                    throw new RegistryException(errMsg, e);
-                }
-            } else {
-                xsdResource.setContent(xsdContent);
-            }
-
             if(metaResource != null){
                 xsdResource.setDescription(metaResource.getDescription());
             }
@@ -470,12 +519,21 @@ public class SchemaProcessor {
                     i++;
                 }
             }
-            boolean newSchemaUpload = !registry.resourceExists(schemaPath);
-            saveToRepositorySafely(requestContext, schemaInfo.getOriginalURL(), schemaPath,
-                    xsdResource);
+            boolean newSchemaUpload = !readCache.resourceExists(registry, schemaPath);
+            // the default hook only stores the uri artifact of the schema, so the content is
+            // serialized only if an overriding hook reads it.
+            InputStream xsdContent = new SchemaContent(schemaInfo, useOriginalSchema);
+            try {
+                xsdResource.setContentStream(xsdContent);
+                saveToRepositorySafely(requestContext, schemaInfo.getOriginalURL(), schemaPath,
+                        xsdResource);
+            } finally {
+                IOUtils.closeQuietly(xsdContent);
+            }
 
             if (schemaInfo.isMasterSchema()) {
                 path = schemaPath;
+                masterArtifactPath = addedArtifactPath;
             }
         }
         return path;
@@ -483,41 +541,14 @@ public class SchemaProcessor {
 
     /**
      * Save associations to the registry if they do not exist.
-     * Execution time could be improved if registry provides a better way to check existing associations.
      *
      * @throws RegistryException
      */
     private void persistAssociations(String schemaPath) throws RegistryException {
-        // until registry provides a functionality to check existing associations, this method will consume a LOT of time
-        for (Association association: associations) {
-            boolean isAssociationExist = false;
-            Association[] existingAssociations = registry.getAllAssociations(association.getSourcePath());
-            if (existingAssociations != null) {
-                for (Association currentAssociation: existingAssociations) {
-                    if (currentAssociation.getDestinationPath().equals(association.getDestinationPath()) &&
-                            currentAssociation.getAssociationType().equals(association.getAssociationType())) {
-                        isAssociationExist = true;
-                        break;
-                    }
-                }
-            }
-            if (!isAssociationExist) {
-                registry.addAssociation(association.getSourcePath(),
-                        association.getDestinationPath(),
-                        association.getAssociationType());
-            }
-        }
+        AssociationWriter.addMissingAssociations(registry, associations);
         // this code was added to fix CARBON-11188
         if( schemaPath!= null && associations.isEmpty()) {
-            Association[] dependencies = registry.getAssociations(schemaPath, CommonConstants.DEPENDS);
-            for(Association dependency : dependencies) {
-                if(dependency.getSourcePath().equals(schemaPath)) {
-                    registry.removeAssociation(dependency.getSourcePath(),
-                            dependency.getDestinationPath(), CommonConstants.DEPENDS);
-                    registry.removeAssociation(dependency.getDestinationPath(),
-                            dependency.getSourcePath(), CommonConstants.USED_BY);
-                }
-            }
+            AssociationWriter.removeDependencies(registry, schemaPath);
         }
     }
 
@@ -538,10 +569,10 @@ public class SchemaProcessor {
             resource.setProperty(CommonConstants.ARTIFACT_ID_PROP_KEY, schemaId);
         }
         if (systemRegistry != null) {
-            CommonUtil.addGovernanceArtifactEntryWithAbsoluteValues(systemRegistry, schemaId, path);
+            session.addIndexEntryWithAbsolutePath(systemRegistry, schemaId, path);
         }
         
-        if (registry.resourceExists(path)) {
+        if (readCache.resourceExists(registry, path)) {
             log.debug("A Resource already exists at given location. Overwriting resource content.");
         }
 
@@ -559,7 +590,8 @@ public class SchemaProcessor {
     }
 
     /**
-     * Method that gets called instructing a schema to be added the registry.
+     * Method that gets called instructing a schema to be added the registry. The content stream
+     * of the resource is opened on its first read, and is closed once this method returns.
      *
      * @param context  the request context for this request.
      * @param path     the path to add the resource to.
@@ -572,18 +604,14 @@ public class SchemaProcessor {
     protected void addSchemaToRegistry(RequestContext context, String path, String url,
                                        Resource resource, Registry registry) throws RegistryException {
         String source = getSource(url);
-        GenericArtifactManager genericArtifactManager = new GenericArtifactManager(systemGovernanceRegistry, "uri");
+        GenericArtifactManager genericArtifactManager = UriArtifactManagers.getManager(systemGovernanceRegistry);
         GenericArtifact xsd = genericArtifactManager.newGovernanceArtifact(new QName(source));
         xsd.setAttribute("overview_name", source);
         xsd.setAttribute("overview_uri", url);
         xsd.setAttribute("overview_type", UriConstants.XSD);
         genericArtifactManager.addGenericArtifact(xsd);
-        Resource artifactResource = registry.get(
-                RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH + GovernanceConstants.GOVERNANCE_ARTIFACT_INDEX_PATH);
-        artifactResource.setProperty(
-                xsd.getId(),UriConstants.XSD_LOCATION + source);
-        registry.put(RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH +
-                GovernanceConstants.GOVERNANCE_ARTIFACT_INDEX_PATH, artifactResource); //TODO
+        session.addIndexEntry(registry, xsd.getId(), UriConstants.XSD_LOCATION + source);
+        addedArtifactPath = xsd.getPath();
     }
 
     private String extractResourceFromURL(String wsdlURL, String suffix) {
@@ -614,5 +642,59 @@ public class SchemaProcessor {
     public static String getSource(String uri){
         return uri.split("/")[uri.split("/").length -1];
     }
-    
+
+    /**
+     * The content of a schema, which is the original file or the serialized schema. The content
+     * is only read or serialized once the stream is first read.
+     */
+    private static class SchemaContent extends InputStream {
+        private SchemaInfo schemaInfo;
+        private boolean useOriginalSchema;
+        private InputStream content;
+
+        private SchemaContent(SchemaInfo schemaInfo, boolean useOriginalSchema) {
+            this.schemaInfo = schemaInfo;
+            this.useOriginalSchema = useOriginalSchema;
+        }
+
+        private InputStream getContent() throws IOException {
+            if (content == null) {
+                if (useOriginalSchema) {
+                    try {
+                        content = new FileInputStream(new File(new URI(schemaInfo.getOriginalURL())));
+                    } catch (URISyntaxException e) {
+                        throw new IOException("Trying to store original schema in registry failed " +
+                                "due to error occurred in file url:" + schemaInfo.getOriginalURL(), e);
+                    }
+                } else {
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    schemaInfo.getSchema().write(outputStream);
+                    content = new ByteArrayInputStream(outputStream.toByteArray());
+                }
+            }
+            return content;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return getContent().read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return getContent().read(bytes, offset, length);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return content != null ? content.available() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (content != null) {
+                content.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.wso2.carbon.governance.api.generic.GenericArtifactManager;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+import org.wso2.carbon.registry.core.session.UserRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the artifact manager of the URI artifacts of each governance registry, so that the
+ * artifact configuration is not read and parsed again for every imported document. Managers are
+ * cached by the tenant and the user of the registry they were created for, since the governance
+ * registries of a tenant are usually created anew for each request. A cached manager is replaced
+ * when the <code>uri.rxt</code> configuration is modified, which is checked at most once per
+ * validation interval.
+ */
+public class UriArtifactManagers {
+
+    private static final String ARTIFACT_KEY = "uri";
+    private static final String RXT_PATH =
+            "/repository/components/org.wso2.carbon.governance/types/uri.rxt";
+    private static final long VALIDATION_INTERVAL = 30000;
+
+    private static final Map<String, CachedManager> managers =
+            new ConcurrentHashMap<String, CachedManager>();
+
+    /**
+     * Returns the artifact manager of the URI artifacts of the given governance registry.
+     *
+     * @param governanceRegistry the governance registry.
+     * @return the artifact manager, which is not cached if the registry is not a user registry.
+     * @throws RegistryException if the artifact configuration could not be read.
+     */
+    public static GenericArtifactManager getManager(Registry governanceRegistry)
+            throws RegistryException {
+        if (!(governanceRegistry instanceof UserRegistry)) {
+            return new GenericArtifactManager(governanceRegistry, ARTIFACT_KEY);
+        }
+        UserRegistry userRegistry = (UserRegistry) governanceRegistry;
+        String key = userRegistry.getTenantId() + "|" + userRegistry.getUserName();
+        long now = System.currentTimeMillis();
+        CachedManager cachedManager = managers.get(key);
+        if (cachedManager != null && now < cachedManager.validUntil) {
+            return cachedManager.manager;
+        }
+        long rxtLastModified = getRxtLastModified(governanceRegistry);
+        if (cachedManager != null && cachedManager.rxtLastModified == rxtLastModified) {
+            cachedManager.validUntil = now + VALIDATION_INTERVAL;
+            return cachedManager.manager;
+        }
+        GenericArtifactManager manager = new GenericArtifactManager(governanceRegistry, ARTIFACT_KEY);
+        managers.put(key, new CachedManager(manager, rxtLastModified, now + VALIDATION_INTERVAL));
+        return manager;
+    }
+
+    private static long getRxtLastModified(Registry governanceRegistry) throws RegistryException {
+        if (!governanceRegistry.resourceExists(RXT_PATH)) {
+            return 0;
+        }
+        Resource rxt = governanceRegistry.get(RXT_PATH);
+        return rxt.getLastModified() != null ? rxt.getLastModified().getTime() : 0;
+    }
+
+    private static class CachedManager {
+        private final GenericArtifactManager manager;
+        private final long rxtLastModified;
+        private volatile long validUntil;
+
+        private CachedManager(GenericArtifactManager manager, long rxtLastModified,
+                              long validUntil) {
+            this.manager = manager;
+            this.rxtLastModified = rxtLastModified;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps remote URLs to local copies, as described by OASIS XML Catalogs. The <code>system</code>
+ * and <code>uri</code> entries map a single URL, while the <code>rewriteSystem</code> and
+ * <code>rewriteURI</code> entries map every URL that starts with the given prefix, the longest
+ * prefix taking precedence. Relative targets are resolved against the location of the catalog.
+ */
+public class UriCatalog {
+    private static final Log log = LogFactory.getLog(UriCatalog.class);
+
+    private static final String CATALOG_NAMESPACE = "urn:oasis:names:tc:entity:xmlns:xml:catalog";
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    static {
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private static final UriCatalog instance = new UriCatalog();
+
+    private volatile Map<String, String> mappings = new HashMap<String, String>();
+    private volatile Map<String, String> rewrites = new LinkedHashMap<String, String>();
+
+    private UriCatalog() {
+    }
+
+    public static UriCatalog getInstance() {
+        return instance;
+    }
+
+    /**
+     * Replaces the entries of the catalog with the entries of the given catalog files.
+     *
+     * @param catalogFiles comma separated paths of the catalog files.
+     */
+    public void setCatalogFiles(String catalogFiles) {
+        Map<String, String> newMappings = new HashMap<String, String>();
+        Map<String, String> newRewrites = new LinkedHashMap<String, String>();
+        for (String catalogFile : catalogFiles.split(",")) {
+            catalogFile = catalogFile.trim();
+            if (catalogFile.length() == 0) {
+                continue;
+            }
+            try {
+                load(new File(catalogFile).toURI().toURL(), newMappings, newRewrites);
+            } catch (Exception e) {
+                log.error("Unable to load the XML catalog " + catalogFile, e);
+            }
+        }
+        mappings = newMappings;
+        rewrites = newRewrites;
+    }
+
+    /**
+     * Returns the location of the local copy of the given URL. A rewritten location that would
+     * fall outside of its rewrite prefix (through <code>..</code> segments, for instance) is
+     * rejected, so that a URL can not be used to read arbitrary local files.
+     *
+     * @param url the URL.
+     * @return the location of the local copy, or null if the URL is not mapped.
+     */
+    public String resolve(String url) {
+        String location = mappings.get(url);
+        if (location != null) {
+            return location;
+        }
+        String normalizedURL = normalize(url);
+        if (normalizedURL == null) {
+            return null;
+        }
+        String longestPrefix = null;
+        String rewritePrefix = null;
+        for (Map.Entry<String, String> rewrite : rewrites.entrySet()) {
+            String prefix = rewrite.getKey();
+            if (normalizedURL.startsWith(prefix) &&
+                    (longestPrefix == null || prefix.length() > longestPrefix.length())) {
+                longestPrefix = prefix;
+                rewritePrefix = rewrite.getValue();
+            }
+        }
+        if (longestPrefix == null) {
+            return null;
+        }
+        location = normalize(rewritePrefix + normalizedURL.substring(longestPrefix.length()));
+        String normalizedPrefix = normalize(rewritePrefix);
+        if (location == null || normalizedPrefix == null ||
+                !location.startsWith(normalizedPrefix) || hasParentSegment(location)) {
+            log.warn("The URL " + url + " is rewritten outside of the catalog prefix " +
+                    rewritePrefix + ". Ignoring the catalog entry.");
+            return null;
+        }
+        return location;
+    }
+
+    private static String normalize(String location) {
+        try {
+            return new URI(location).normalize().toString();
+        } catch (URISyntaxException e) {
+            log.warn("Unable to resolve the URL " + location + " against the XML catalog", e);
+            return null;
+        }
+    }
+
+    private static boolean hasParentSegment(String location) {
+        // the percent-encoded form of the path is decoded when the location is opened.
+        String path;
+        try {
+            path = new URI(location).getPath();
+        } catch (URISyntaxException e) {
+            return true;
+        }
+        if (path == null) {
+            return true;
+        }
+        for (String segment : path.replace('\\', '/').split("/")) {
+            if ("..".equals(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void load(URL catalogURL, Map<String, String> mappings,
+                             Map<String, String> rewrites) throws IOException, XMLStreamException {
+        InputStream inputStream = catalogURL.openStream();
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT ||
+                            !CATALOG_NAMESPACE.equals(reader.getNamespaceURI())) {
+                        continue;
+                    }
+                    String localName = reader.getLocalName();
+                    if ("system".equals(localName)) {
+                        put(mappings, reader.getAttributeValue(null, "systemId"),
+                                resolve(catalogURL, reader.getAttributeValue(null, "uri")));
+                    } else if ("uri".equals(localName)) {
+                        put(mappings, reader.getAttributeValue(null, "name"),
+                                resolve(catalogURL, reader.getAttributeValue(null, "uri")));
+                    } else if ("rewriteSystem".equals(localName)) {
+                        put(rewrites, reader.getAttributeValue(null, "systemIdStartString"),
+                                resolve(catalogURL, reader.getAttributeValue(null, "rewritePrefix")));
+                    } else if ("rewriteURI".equals(localName)) {
+                        put(rewrites, reader.getAttributeValue(null, "uriStartString"),
+                                resolve(catalogURL, reader.getAttributeValue(null, "rewritePrefix")));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static String resolve(URL catalogURL, String location) throws MalformedURLException {
+        return location == null ? null : new URL(catalogURL, location).toString();
+    }
+
+    private static void put(Map<String, String> entries, String key, String value) {
+        // as in the catalog specification, the first matching entry wins.
+        if (key != null && value != null && !entries.containsKey(key)) {
+            entries.put(key, value);
+        }
+    }
+}
@@ -23,5 +23,9 @@ public class UriConstants {
     public static final java.lang.String WSDL_LOCATION = "/uris/WSDL/";
     public static final java.lang.String XSD_LOCATION = "/uris/XSD/";
     public static final java.lang.String POLICY_LOCATION = "/uris/Policy/";
+    public static final java.lang.String SOURCE_PROPERTY = "uri.source";
+    public static final java.lang.String CONTENT_HASH_PROPERTY = "uri.content.hash";
+    public static final java.lang.String GRAPH_DIGEST_PROPERTY = "uri.graph.digest";
+    public static final java.lang.String IMPORTED_WITH_PROPERTY = "uri.imported.with";
 
 }
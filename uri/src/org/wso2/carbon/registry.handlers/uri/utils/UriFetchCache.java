@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A disk backed cache of the documents imported from remote URIs. The content of each document
+ * is stored once per content hash, and a small metadata file per URL records that hash together
+ * with the ETag and Last-Modified validators sent by the server, so that a later fetch of the
+ * same URL can be answered with a conditional GET. Entries are evicted in least recently used
+ * order once the stored content grows beyond the configured size.
+ */
+public class UriFetchCache {
+    private static final Log log = LogFactory.getLog(UriFetchCache.class);
+
+    private static final String CONTENT_SUFFIX = ".content";
+    private static final String METADATA_SUFFIX = ".meta";
+    private static final String URL_KEY = "url";
+    private static final String CONTENT_HASH_KEY = "contentHash";
+    private static final String ETAG_KEY = "eTag";
+    private static final String LAST_MODIFIED_KEY = "lastModified";
+
+    private static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    private static final UriFetchCache instance = new UriFetchCache();
+
+    private File cacheDirectory =
+            new File(System.getProperty("java.io.tmpdir"), "uri-fetch-cache");
+    private long maxSize = DEFAULT_MAX_SIZE;
+
+    // access ordered, so that iteration starts from the least recently used entry.
+    private Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+    private Map<String, Integer> contentReferences = new HashMap<String, Integer>();
+    private long currentSize = 0;
+    private boolean loaded = false;
+
+    private UriFetchCache() {
+    }
+
+    public static UriFetchCache getInstance() {
+        return instance;
+    }
+
+    public synchronized void setCacheDirectory(String cacheDirectory) {
+        this.cacheDirectory = new File(cacheDirectory);
+        entries.clear();
+        contentReferences.clear();
+        currentSize = 0;
+        loaded = false;
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * Fetches the document at the given URL. HTTP(S) documents are revalidated against the cached
+     * copy using the stored validators, and are served from the disk when the server reports that
+     * they have not been modified. Documents on any other scheme, and documents mapped to a local
+     * copy by the {@link UriCatalog}, are read directly.
+     *
+     * @param url the URL of the document.
+     * @return the fetched document.
+     * @throws IOException if the document could not be read.
+     */
+    public RemoteDocument fetch(String url) throws IOException {
+        return fetch(url, Long.MAX_VALUE);
+    }
+
+    /**
+     * Fetches the document at the given URL as by {@link #fetch(String)}, rejecting it as soon as
+     * it exceeds the given size.
+     *
+     * @param url             the URL of the document.
+     * @param maxDocumentSize the maximum size of the document in bytes.
+     * @return the fetched document.
+     * @throws IOException if the document could not be read, or is too large.
+     */
+    public RemoteDocument fetch(String url, long maxDocumentSize) throws IOException {
+        String localLocation = UriCatalog.getInstance().resolve(url);
+        if (localLocation != null) {
+            // the document keeps its own URL, so that relative imports resolve as usual.
+            byte[] content = UriFetchClient.readBounded(new URL(localLocation).openStream(), url,
+                    Long.MAX_VALUE, maxDocumentSize);
+            return new RemoteDocument(url, content, computeHash(content), null, null);
+        }
+        if (!isCacheable(url)) {
+            byte[] content = UriFetchClient.readBounded(new URL(url).openStream(), url,
+                    Long.MAX_VALUE, maxDocumentSize);
+            return new RemoteDocument(url, content, computeHash(content), null, null);
+        }
+        CacheEntry cachedEntry;
+        synchronized (this) {
+            load();
+            cachedEntry = entries.get(url);
+        }
+        RemoteDocument document;
+        if (cachedEntry != null) {
+            document = UriFetchClient.getInstance().fetch(url, cachedEntry.eTag,
+                    cachedEntry.lastModified, maxDocumentSize);
+        } else {
+            document = UriFetchClient.getInstance().fetch(url, null, null, maxDocumentSize);
+        }
+        if (document == null) {
+            if (cachedEntry == null) {
+                throw new IOException("Server returned HTTP response code: 304 for URL: " + url);
+            }
+            byte[] content = readContent(cachedEntry.contentHash);
+            if (content != null) {
+                checkSize(url, content.length, maxDocumentSize);
+                touch(cachedEntry);
+                return new RemoteDocument(url, content, cachedEntry.contentHash,
+                        cachedEntry.eTag, cachedEntry.lastModified);
+            }
+            // the content has been removed underneath us, so we fetch it once more without
+            // any validators.
+            remove(url);
+            return fetch(url, maxDocumentSize);
+        }
+        store(url, document.getContent(), document.getContentHash(), document.getETag(),
+                document.getLastModified());
+        return document;
+    }
+
+    /**
+     * Computes the hash by which the given content is addressed in the cache.
+     *
+     * @param content the content.
+     * @return the hex encoded SHA-1 hash of the content.
+     */
+    public static String computeHash(byte[] content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 message digest is not available", e);
+        }
+        byte[] hash = digest.digest(content);
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static boolean isCacheable(String url) {
+        String lowerCaseURL = url.toLowerCase();
+        return lowerCaseURL.startsWith("http:") || lowerCaseURL.startsWith("https:");
+    }
+
+
+    private static void checkSize(String url, long size, long maxDocumentSize) throws IOException {
+        if (size > maxDocumentSize) {
+            throw new IOException("The document at " + url + " exceeds the maximum size of " +
+                    maxDocumentSize + " bytes");
+        }
+    }
+
+    private synchronized void store(String url, byte[] content, String contentHash, String eTag,
+                                    String lastModified) {
+        CacheEntry oldEntry = entries.get(url);
+        if (oldEntry != null && oldEntry.contentHash.equals(contentHash) &&
+                equals(oldEntry.eTag, eTag) && equals(oldEntry.lastModified, lastModified)) {
+            touch(oldEntry);
+            return;
+        }
+        if (eTag == null && lastModified == null) {
+            // without validators we have to download the document every time anyway.
+            if (oldEntry != null) {
+                remove(url);
+            }
+            return;
+        }
+        if (!makeDirs(cacheDirectory)) {
+            return;
+        }
+        File contentFile = getContentFile(contentHash);
+        if (!contentFile.exists()) {
+            try {
+                writeAtomically(contentFile, content);
+            } catch (IOException e) {
+                log.warn("Failed to store the content of " + url + " in the fetch cache", e);
+                return;
+            }
+        }
+        CacheEntry entry = new CacheEntry(url, contentHash, content.length, eTag, lastModified);
+        try {
+            // the metadata file of the url is replaced, so the old entry only gives up its content.
+            writeMetadata(entry);
+        } catch (IOException e) {
+            log.warn("Failed to store the metadata of " + url + " in the fetch cache", e);
+            return;
+        }
+        if (oldEntry != null) {
+            entries.remove(url);
+            releaseContent(oldEntry, contentHash);
+        }
+        addEntry(entry);
+        evict();
+    }
+
+    private synchronized void remove(String url) {
+        CacheEntry entry = entries.remove(url);
+        if (entry == null) {
+            return;
+        }
+        deleteFile(getMetadataFile(url));
+        releaseContent(entry, null);
+    }
+
+    /**
+     * Drops the reference of the given entry to its content, deleting the content once no entry
+     * refers to it, unless it is the content with the given hash.
+     */
+    private void releaseContent(CacheEntry entry, String keptContentHash) {
+        Integer references = contentReferences.get(entry.contentHash);
+        if (references == null || references <= 1) {
+            contentReferences.remove(entry.contentHash);
+            currentSize -= entry.size;
+            if (!entry.contentHash.equals(keptContentHash)) {
+                deleteFile(getContentFile(entry.contentHash));
+            }
+        } else {
+            contentReferences.put(entry.contentHash, references - 1);
+        }
+    }
+
+    private void addEntry(CacheEntry entry) {
+        entries.put(entry.url, entry);
+        Integer references = contentReferences.get(entry.contentHash);
+        if (references == null) {
+            contentReferences.put(entry.contentHash, 1);
+            currentSize += entry.size;
+        } else {
+            contentReferences.put(entry.contentHash, references + 1);
+        }
+    }
+
+    private void evict() {
+        Iterator<String> urls = new ArrayList<String>(entries.keySet()).iterator();
+        while (currentSize > maxSize && urls.hasNext()) {
+            remove(urls.next());
+        }
+    }
+
+    private synchronized void touch(CacheEntry entry) {
+        // a lookup is enough to move the entry to the tail of the access order, while the
+        // modification time of the metadata file preserves that order across restarts.
+        if (entries.get(entry.url) != null &&
+                !getMetadataFile(entry.url).setLastModified(System.currentTimeMillis())) {
+            log.debug("Failed to update the access time of " + entry.url + " in the fetch cache");
+        }
+    }
+
+    /**
+     * Loads the entries that were stored on the disk by a previous run, ordered by the time at
+     * which they were last used.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] metadataFiles = cacheDirectory.listFiles();
+        if (metadataFiles == null) {
+            return;
+        }
+        Arrays.sort(metadataFiles, new Comparator<File>() {
+            public int compare(File file1, File file2) {
+                long difference = file1.lastModified() - file2.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File metadataFile : metadataFiles) {
+            if (!metadataFile.getName().endsWith(METADATA_SUFFIX)) {
+                continue;
+            }
+            CacheEntry entry = readMetadata(metadataFile);
+            if (entry == null) {
+                deleteFile(metadataFile);
+            } else {
+                addEntry(entry);
+            }
+        }
+        evict();
+    }
+
+    private CacheEntry readMetadata(File metadataFile) {
+        Properties metadata = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(metadataFile);
+            metadata.load(inputStream);
+        } catch (IOException e) {
+            log.debug("Unable to read fetch cache metadata " + metadataFile.getName(), e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        String url = metadata.getProperty(URL_KEY);
+        String contentHash = metadata.getProperty(CONTENT_HASH_KEY);
+        if (url == null || contentHash == null) {
+            return null;
+        }
+        File contentFile = getContentFile(contentHash);
+        if (!contentFile.isFile()) {
+            return null;
+        }
+        return new CacheEntry(url, contentHash, contentFile.length(),
+                metadata.getProperty(ETAG_KEY), metadata.getProperty(LAST_MODIFIED_KEY));
+    }
+
+    private void writeMetadata(CacheEntry entry) throws IOException {
+        Properties metadata = new Properties();
+        metadata.setProperty(URL_KEY, entry.url);
+        metadata.setProperty(CONTENT_HASH_KEY, entry.contentHash);
+        if (entry.eTag != null) {
+            metadata.setProperty(ETAG_KEY, entry.eTag);
+        }
+        if (entry.lastModified != null) {
+            metadata.setProperty(LAST_MODIFIED_KEY, entry.lastModified);
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        metadata.store(outputStream, null);
+        writeAtomically(getMetadataFile(entry.url), outputStream.toByteArray());
+    }
+
+    private byte[] readContent(String contentHash) {
+        File contentFile = getContentFile(contentHash);
+        if (!contentFile.isFile()) {
+            return null;
+        }
+        try {
+            return UriFetchClient.readBounded(new FileInputStream(contentFile),
+                    contentFile.getName(), Long.MAX_VALUE, Long.MAX_VALUE);
+        } catch (IOException e) {
+            log.debug("Unable to read fetch cache content " + contentFile.getName(), e);
+            return null;
+        }
+    }
+
+    private void writeAtomically(File file, byte[] content) throws IOException {
+        File tempFile = File.createTempFile(file.getName(), ".tmp", cacheDirectory);
+        OutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            // the rename might fail on some platforms if the target exists.
+            deleteFile(file);
+            if (!tempFile.renameTo(file)) {
+                deleteFile(tempFile);
+                throw new IOException("Unable to create " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    private File getContentFile(String contentHash) {
+        return new File(cacheDirectory, contentHash + CONTENT_SUFFIX);
+    }
+
+    private File getMetadataFile(String url) {
+        try {
+            return new File(cacheDirectory, computeHash(url.getBytes("UTF-8")) + METADATA_SUFFIX);
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 encoding is not supported", e);
+        }
+    }
+
+    private static boolean makeDirs(File directory) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            log.warn("Failed to create directories at path: " + directory.getAbsolutePath());
+            return false;
+        }
+        return true;
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            log.debug("Failed to delete " + file.getAbsolutePath());
+        }
+    }
+
+    private static boolean equals(String value1, String value2) {
+        return value1 == null ? value2 == null : value1.equals(value2);
+    }
+
+    private static class CacheEntry {
+        private String url;
+        private String contentHash;
+        private long size;
+        private String eTag;
+        private String lastModified;
+
+        private CacheEntry(String url, String contentHash, long size, String eTag,
+                           String lastModified) {
+            this.url = url;
+            this.contentHash = contentHash;
+            this.size = size;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The HTTP client shared by all URI handlers to download remote documents. Requests are bounded
+ * by connect, read and total deadlines, responses by a maximum size, and the number of
+ * concurrent requests per host is capped. Responses are always read to the end and closed so
+ * that the underlying connection is returned to the keep-alive pool of the JDK, which keeps the
+ * idle connections of each host for reuse.
+ */
+public class UriFetchClient {
+    private static final Log log = LogFactory.getLog(UriFetchClient.class);
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_READ_TIMEOUT = 30000;
+    private static final long DEFAULT_TOTAL_TIMEOUT = 120000;
+    private static final long DEFAULT_MAX_RESPONSE_SIZE = 32L * 1024 * 1024;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+    private static final UriFetchClient instance = new UriFetchClient();
+
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private long totalTimeout = DEFAULT_TOTAL_TIMEOUT;
+    private long maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE;
+    private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    private ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    private ScheduledThreadPoolExecutor deadlineTimer = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "uri-fetch-deadline-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private UriFetchClient() {
+    }
+
+    public static UriFetchClient getInstance() {
+        return instance;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public void setTotalTimeout(long totalTimeout) {
+        this.totalTimeout = totalTimeout;
+    }
+
+    public void setMaxResponseSize(long maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    public synchronized void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        // requests already holding a permit of the old limit simply release it there.
+        hostPermits.clear();
+    }
+
+    /**
+     * Downloads the document at the given HTTP(S) URL. If validators of a previously downloaded
+     * copy are given, the request is made conditional on them.
+     *
+     * @param url          the URL of the document.
+     * @param eTag         the ETag of the cached copy, or null.
+     * @param lastModified the Last-Modified value of the cached copy, or null.
+     * @return the downloaded document, or null if the server reported that the cached copy has
+     *         not been modified.
+     * @throws IOException if the document could not be downloaded within the configured limits.
+     */
+    public RemoteDocument fetch(String url, String eTag, String lastModified) throws IOException {
+        return fetch(url, eTag, lastModified, maxResponseSize);
+    }
+
+    /**
+     * Downloads the document at the given HTTP(S) URL, with a size limit of its own. The limit is
+     * capped by the configured maximum response size.
+     *
+     * @param url          the URL of the document.
+     * @param eTag         the ETag of the cached copy, or null.
+     * @param lastModified the Last-Modified value of the cached copy, or null.
+     * @param maxSize      the maximum size of the document in bytes.
+     * @return the downloaded document, or null if the server reported that the cached copy has
+     *         not been modified.
+     * @throws IOException if the document could not be downloaded within the limits.
+     */
+    public RemoteDocument fetch(String url, String eTag, String lastModified, long maxSize)
+            throws IOException {
+        maxSize = Math.min(maxSize, maxResponseSize);
+        URL target = new URL(url);
+        Semaphore permits = getHostPermits(target.getHost() + ":" + target.getPort());
+        long deadline = System.currentTimeMillis() + totalTimeout;
+        try {
+            if (!permits.tryAcquire(totalTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a connection to " + target.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " +
+                    target.getHost());
+        }
+        try {
+            return doFetch(url, target, eTag, lastModified, deadline, maxSize);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private RemoteDocument doFetch(String url, URL target, String eTag, String lastModified,
+                                   long deadline, long maxSize) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (eTag != null) {
+            connection.setRequestProperty("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        // the read timeout only bounds a single read, so a slowly trickling response is cut by
+        // disconnecting it once the total deadline has passed.
+        ScheduledFuture<?> deadlineTask = deadlineTimer.schedule(new Runnable() {
+            public void run() {
+                connection.disconnect();
+            }
+        }, Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        try {
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                discard(connection.getInputStream());
+                return null;
+            }
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                discard(connection.getErrorStream());
+                throw new IOException("Server returned HTTP response code: " + responseCode +
+                        " for URL: " + target);
+            }
+            if (connection.getContentLength() > maxSize) {
+                connection.disconnect();
+                throw new IOException("The document at " + target + " exceeds the maximum size of " +
+                        maxSize + " bytes");
+            }
+            InputStream inputStream = connection.getInputStream();
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            byte[] content = readBounded(inputStream, target.toString(), deadline, maxSize);
+            return new RemoteDocument(url, content, UriFetchCache.computeHash(content),
+                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+        } catch (IOException e) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IOException("Fetching " + target + " did not complete within " +
+                        totalTimeout + " milliseconds", e);
+            }
+            throw e;
+        } finally {
+            deadlineTask.cancel(false);
+            deadlineTimer.remove((Runnable) deadlineTask);
+        }
+    }
+
+    /**
+     * Reads the given stream fully and closes it, failing as soon as the content exceeds the given
+     * size or the given deadline has passed.
+     *
+     * @param inputStream the stream.
+     * @param location    the location of the document, for the error messages.
+     * @param deadline    the time by which the read must complete, or {@link Long#MAX_VALUE}.
+     * @param maxSize     the maximum size of the content in bytes.
+     * @return the content.
+     * @throws IOException if the stream could not be read, or exceeds the size or the deadline.
+     */
+    static byte[] readBounded(InputStream inputStream, String location, long deadline,
+                              long maxSize) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        try {
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                total += count;
+                if (total > maxSize) {
+                    throw new IOException("The document at " + location +
+                            " exceeds the maximum size of " + maxSize + " bytes");
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Fetching " + location + " did not complete in time");
+                }
+                outputStream.write(buffer, 0, count);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return outputStream.toByteArray();
+    }
+
+    private Semaphore getHostPermits(String host) {
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            Semaphore newPermits = new Semaphore(maxConnectionsPerHost, true);
+            permits = hostPermits.putIfAbsent(host, newPermits);
+            if (permits == null) {
+                permits = newPermits;
+            }
+        }
+        return permits;
+    }
+
+    // reading the rest of a response lets the JDK put the connection back to the keep-alive pool.
+    private static void discard(InputStream inputStream) {
+        if (inputStream == null) {
+            return;
+        }
+        try {
+            IOUtils.skip(inputStream, Long.MAX_VALUE);
+        } catch (IOException e) {
+            log.debug("Unable to consume the response", e);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.governance.api.generic.dataobjects.GenericArtifact;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+import org.wso2.carbon.registry.core.internal.RegistryCoreServiceComponent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Periodically re-checks the URI artifacts of the governance registry against their remote
+ * sources, and re-imports the artifacts whose import graph has been modified since the last
+ * import. Only the artifacts imported on their own are checked, as the artifacts added for the
+ * documents they import are re-imported with them. The checks run on a bounded thread pool, and
+ * all fetches of a run to the same host are spaced by a minimum delay. Each scheduled run starts
+ * after a random jitter, so that the runs of several nodes do not hit the sources at the same time.
+ */
+public class UriRefreshScheduler {
+    private static final Log log = LogFactory.getLog(UriRefreshScheduler.class);
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final long DEFAULT_HOST_DELAY = 1000;
+    private static final long DEFAULT_JITTER = 30000;
+
+    private static final UriRefreshScheduler instance = new UriRefreshScheduler();
+
+    private long interval = 0;
+    private int threads = DEFAULT_THREADS;
+    private long hostDelay = DEFAULT_HOST_DELAY;
+    private long jitter = DEFAULT_JITTER;
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> scheduledRun;
+    private Random random = new Random();
+
+    private UriRefreshScheduler() {
+    }
+
+    public static UriRefreshScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sets the interval between two runs, and (re)schedules the runs. An interval of zero or less
+     * disables the refresh.
+     *
+     * @param interval the interval in milliseconds.
+     */
+    public synchronized void setInterval(long interval) {
+        this.interval = interval;
+        if (scheduledRun != null) {
+            scheduledRun.cancel(false);
+            scheduledRun = null;
+        }
+        if (interval <= 0) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "uri-refresh-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        scheduledRun = scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    waitForJitter();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                refresh();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setHostDelay(long hostDelay) {
+        this.hostDelay = hostDelay;
+    }
+
+    public void setJitter(long jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * Checks all URI artifacts once, and waits until all of them have been checked.
+     */
+    public void refresh() {
+        GenericArtifact[] artifacts;
+        try {
+            Registry governanceRegistry = getGovernanceRegistry();
+            artifacts = UriArtifactManagers.getManager(governanceRegistry).getAllGenericArtifacts();
+        } catch (RegistryException e) {
+            log.error("Unable to list the URI artifacts to be refreshed", e);
+            return;
+        }
+        if (artifacts == null || artifacts.length == 0) {
+            return;
+        }
+        final AtomicInteger refreshed = new AtomicInteger();
+        // the spacing of the requests to each host only spans a single run.
+        final HostSpacing hostSpacing = new HostSpacing(hostDelay);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "uri-refresh-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(artifacts.length);
+            for (final GenericArtifact artifact : artifacts) {
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        if (refresh(artifact, hostSpacing)) {
+                            refreshed.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.error("Unable to refresh a URI artifact", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        if (log.isInfoEnabled()) {
+            log.info("Checked " + artifacts.length + " URI artifacts, re-imported " +
+                    refreshed.get());
+        }
+    }
+
+    /**
+     * Checks a single artifact, and re-imports it if its import graph has been modified.
+     *
+     * @return true if the artifact was re-imported.
+     */
+    private boolean refresh(GenericArtifact artifact, HostSpacing hostSpacing) {
+        String uri = null;
+        try {
+            uri = artifact.getAttribute("overview_uri");
+            if (uri == null) {
+                return false;
+            }
+            Registry governanceRegistry = getGovernanceRegistry();
+            Resource resource = governanceRegistry.get(artifact.getPath());
+            if (resource.getProperty(UriConstants.IMPORTED_WITH_PROPERTY) != null) {
+                return false;
+            }
+            String graphDigest = resource.getProperty(UriConstants.GRAPH_DIGEST_PROPERTY);
+            // the session keeps the documents downloaded by the check for the re-import.
+            ImportSession session = ImportSession.begin();
+            session.setHostSpacing(hostSpacing);
+            try {
+                if (graphDigest != null &&
+                        uri.equals(resource.getProperty(UriConstants.SOURCE_PROPERTY)) &&
+                        !session.isGraphModified(uri, graphDigest)) {
+                    return false;
+                }
+                UriArtifactManagers.getManager(governanceRegistry).updateGenericArtifact(artifact);
+            } finally {
+                ImportSession.end();
+            }
+            return true;
+        } catch (Exception e) {
+            log.error("Unable to refresh the URI artifact of " + uri, e);
+            return false;
+        }
+    }
+
+    /**
+     * Sleeps for a random jitter before a scheduled run.
+     */
+    private void waitForJitter() throws InterruptedException {
+        long delay;
+        synchronized (random) {
+            delay = jitter > 0 ? (long) (random.nextDouble() * jitter) : 0;
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    private static Registry getGovernanceRegistry() throws RegistryException {
+        return RegistryCoreServiceComponent.getRegistryService().getGovernanceSystemRegistry();
+    }
+}
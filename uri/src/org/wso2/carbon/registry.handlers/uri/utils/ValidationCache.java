@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.wso2.carbon.registry.extensions.utils.WSDLValidationInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the outcome of the WSDL, WS-I and schema validations of earlier imports, so that
+ * re-imports of identical documents are not validated again. An outcome is keyed by the
+ * validator, its version, the location of the validated document, and the digest of all documents
+ * of the import session, since the validators also read the documents imported by the validated
+ * one. Outcomes are only cached for remote documents, whose import graph is read into the session
+ * before validation.
+ */
+public class ValidationCache {
+
+    public static final String WSDL_VALIDATOR = "wsdl";
+    public static final String WSI_VALIDATOR = "wsi";
+    public static final String SCHEMA_VALIDATOR = "schema";
+
+    private static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static final ValidationCache instance = new ValidationCache();
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private final Map<String, Outcome> outcomes = new LinkedHashMap<String, Outcome>(16, 0.75f, true);
+    private final Map<Class<?>, String> versions = new ConcurrentHashMap<Class<?>, String>();
+
+    private ValidationCache() {
+    }
+
+    public static ValidationCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sets the maximum number of cached outcomes. A size of zero disables the cache.
+     *
+     * @param maxSize the maximum number of cached outcomes.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * Returns the cached outcome of a validation.
+     *
+     * @param validator      the name of the validator.
+     * @param validatorClass the class implementing the validator, whose version is part of the key.
+     * @param session        the session of the import.
+     * @param location       the location of the validated document.
+     * @return the outcome, or null if it is not cached.
+     */
+    public WSDLValidationInfo get(String validator, Class<?> validatorClass, ImportSession session,
+                                  String location) {
+        return get(getKey(validator, validatorClass, session, location));
+    }
+
+    /**
+     * Returns the cached outcome of a validation.
+     *
+     * @param key the key of the validation, as returned by
+     *            {@link #getKey(String, Class, ImportSession, String)}.
+     * @return the outcome, or null if it is not cached.
+     */
+    public WSDLValidationInfo get(String key) {
+        if (key == null) {
+            return null;
+        }
+        Outcome outcome;
+        synchronized (this) {
+            outcome = outcomes.get(key);
+        }
+        if (outcome == null) {
+            return null;
+        }
+        WSDLValidationInfo validationInfo = new WSDLValidationInfo();
+        validationInfo.setStatus(outcome.status);
+        for (String message : outcome.messages) {
+            validationInfo.addValidationMessage(message);
+        }
+        return validationInfo;
+    }
+
+    /**
+     * Caches the outcome of a validation.
+     *
+     * @param validator      the name of the validator.
+     * @param validatorClass the class implementing the validator, whose version is part of the key.
+     * @param session        the session of the import.
+     * @param location       the location of the validated document.
+     * @param validationInfo the outcome.
+     */
+    public void put(String validator, Class<?> validatorClass, ImportSession session,
+                    String location, WSDLValidationInfo validationInfo) {
+        put(getKey(validator, validatorClass, session, location), validationInfo);
+    }
+
+    /**
+     * Caches the outcome of a validation.
+     *
+     * @param key            the key of the validation, as returned by
+     *                       {@link #getKey(String, Class, ImportSession, String)}.
+     * @param validationInfo the outcome.
+     */
+    public void put(String key, WSDLValidationInfo validationInfo) {
+        if (key == null || validationInfo == null) {
+            return;
+        }
+        List<String> messages = validationInfo.getValidationMessages() != null ?
+                new ArrayList<String>(validationInfo.getValidationMessages()) :
+                new ArrayList<String>();
+        synchronized (this) {
+            if (maxSize > 0) {
+                outcomes.put(key, new Outcome(validationInfo.getStatus(), messages));
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Returns the key of a validation, so that its outcome can be cached once the session of the
+     * import has ended.
+     *
+     * @param validator      the name of the validator.
+     * @param validatorClass the class implementing the validator, whose version is part of the key.
+     * @param session        the session of the import.
+     * @param location       the location of the validated document.
+     * @return the key, or null if the outcome is not to be cached.
+     */
+    public String getKey(String validator, Class<?> validatorClass, ImportSession session,
+                         String location) {
+        if (maxSize <= 0 || location == null || !ImportPrefetcher.isRemote(location)) {
+            return null;
+        }
+        String digest = session.getDigest();
+        if (digest == null) {
+            return null;
+        }
+        String version = getVersion(validatorClass);
+        if (version == null) {
+            return null;
+        }
+        return validator + "|" + version + "|" + location + "|" + digest;
+    }
+
+    /**
+     * Returns the version of the given validator class. Bundles seldom declare an implementation
+     * version in their manifest, in which case the version is made of the location the class was
+     * loaded from, which names the bundle and its version, and the hash of the class file.
+     *
+     * @return the version, or null if the class can not be told apart from other versions of it.
+     */
+    private String getVersion(Class<?> validatorClass) {
+        String version = versions.get(validatorClass);
+        if (version != null) {
+            return version;
+        }
+        version = validatorClass.getPackage() != null ?
+                validatorClass.getPackage().getImplementationVersion() : null;
+        if (version == null) {
+            CodeSource codeSource = validatorClass.getProtectionDomain().getCodeSource();
+            String classHash = getClassHash(validatorClass);
+            if (codeSource == null || codeSource.getLocation() == null || classHash == null) {
+                return null;
+            }
+            version = codeSource.getLocation() + "#" + classHash;
+        }
+        versions.put(validatorClass, version);
+        return version;
+    }
+
+    private static String getClassHash(Class<?> validatorClass) {
+        String className = validatorClass.getName();
+        InputStream classFile = validatorClass.getResourceAsStream(
+                className.substring(className.lastIndexOf('.') + 1) + ".class");
+        if (classFile == null) {
+            return null;
+        }
+        try {
+            return UriFetchCache.computeHash(IOUtils.toByteArray(classFile));
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(classFile);
+        }
+    }
+
+    private void evict() {
+        Iterator<Outcome> iterator = outcomes.values().iterator();
+        while (outcomes.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static class Outcome {
+        private final String status;
+        private final List<String> messages;
+
+        private Outcome(String status, List<String> messages) {
+            this.status = status;
+            this.messages = messages;
+        }
+    }
+}
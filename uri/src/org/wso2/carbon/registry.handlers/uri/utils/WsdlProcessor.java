@@ -30,7 +30,6 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.wso2.carbon.governance.api.generic.GenericArtifactManager;
 import org.wso2.carbon.governance.api.generic.dataobjects.GenericArtifact;
-import org.wso2.carbon.governance.api.util.GovernanceConstants;
 import org.wso2.carbon.governance.api.util.GovernanceUtils;
 import org.wso2.carbon.registry.core.*;
 import org.wso2.carbon.registry.core.config.RegistryContext;
@@ -69,7 +68,8 @@ public class WsdlProcessor {
     private Definition originalDefinition;
     private List<Association> associations;
     private SchemaProcessor schemaProcessor;
-    private int i;
+    private ImportSession session;
+    private RegistryReadCache readCache;
     
     private String resourceName;
 
@@ -77,8 +77,7 @@ public class WsdlProcessor {
     public static final String INCLUDE_TAG = "include";
     private static final String SAMPLE_BASE_URL = "http://this.wsdl.needs/a/valid/url/to/proceed.wsdl";
 
-    private List<String> visitedWSDLs;
-    private List<String> processedWSDLs;
+    private ImportGraph<WSDLInfo> wsdlGraph;
     private Map<String, WSDLInfo> wsdls;
 
     private WSDLValidationInfo wsdlValidationInfo = null;
@@ -86,6 +85,11 @@ public class WsdlProcessor {
 
     private boolean hasWSDLImports = false;
 
+    private boolean deferValidation = false;
+    private List<DeferredValidation.Check> deferredValidations =
+            new ArrayList<DeferredValidation.Check>();
+    private String masterArtifactPath;
+
     private static Log log = LogFactory.getLog(WsdlProcessor.class);
 
     private static InheritableThreadLocal<Set<String>> importedWSDLs =
@@ -113,28 +117,57 @@ public class WsdlProcessor {
 
     private boolean createService = true;
 
+    /**
+     * Sets whether the validations of the master WSDL are left to be run after the import,
+     * rather than being run by it.
+     *
+     * @param deferValidation true to defer the validations.
+     */
+    public void setDeferValidation(boolean deferValidation) {
+        this.deferValidation = deferValidation;
+    }
+
+    /**
+     * Returns the validations of the master WSDL that were deferred by the import.
+     *
+     * @return the deferred validations.
+     */
+    public List<DeferredValidation.Check> getDeferredValidations() {
+        return deferredValidations;
+    }
+
+    /**
+     * Returns the path of the artifact stored for the master WSDL, relative to the governance
+     * registry.
+     *
+     * @return the path, or null if no artifact was stored.
+     */
+    public String getMasterArtifactPath() {
+        return masterArtifactPath;
+    }
+
     public WsdlProcessor(RequestContext requestContext) {
         this.registry = requestContext.getRegistry();
+        session = ImportSession.getSession();
+        readCache = session.getReadCache();
         try {
             this.systemRegistry = CommonUtil.getUnchrootedSystemRegistry(requestContext);
-            if (!systemRegistry.resourceExists(
+            if (!readCache.resourceExists(systemRegistry,
                     getChrootedSchemaLocation(requestContext.getRegistryContext()))) {
-                systemRegistry.put(getChrootedSchemaLocation(requestContext.getRegistryContext()),
+                readCache.put(systemRegistry, getChrootedSchemaLocation(requestContext.getRegistryContext()),
                         systemRegistry.newCollection());
             }
-            if (!systemRegistry.resourceExists(
+            if (!readCache.resourceExists(systemRegistry,
                     getChrootedWSDLLocation(requestContext.getRegistryContext()))) {
-                systemRegistry.put(getChrootedWSDLLocation(requestContext.getRegistryContext()),
+                readCache.put(systemRegistry, getChrootedWSDLLocation(requestContext.getRegistryContext()),
                         systemRegistry.newCollection());
             }
             this.systemGovernanceRegistry = RegistryCoreServiceComponent.getRegistryService().getGovernanceSystemRegistry();
         } catch (RegistryException ignore) {
             this.systemRegistry = null;
         }
-        i = 0;
         associations = new ArrayList<Association>();
-        visitedWSDLs = new ArrayList<String>();
-        processedWSDLs = new ArrayList<String>();
+        wsdlGraph = new ImportGraph<WSDLInfo>();
         schemaProcessor = buildSchemaProcessor(requestContext, null);
         wsdls = new LinkedHashMap<String, WSDLInfo>();
         resourceName = "";
@@ -201,7 +234,7 @@ public class WsdlProcessor {
                     continue;
                 }
                 if (!resourcePath.equals(RegistryConstants.PATH_SEPARATOR + wsdlName)
-                        & !resourcePath.contains(UriConstants.WSDL_LOCATION) & (registry.resourceExists(resourcePath))) {
+                        & !resourcePath.contains(UriConstants.WSDL_LOCATION) & (readCache.resourceExists(registry, resourcePath))) {
                     if(currentWsdlLocation == null){
                         currentEnvironment = resourcePath.substring(0,resourcePath.indexOf(CommonUtil.
                                 derivePathFragmentFromNamespace(wsdlDefinition.getTargetNamespace()).replace("//", "/")));
@@ -257,7 +290,7 @@ public class WsdlProcessor {
                     wsdlPath = resourcePath;
                     isDefaultEnvironment = false;
                     
-                    Association[] associations = registry.getAssociations(wsdlPath,CommonConstants.DEPENDS);
+                    Association[] associations = readCache.getAssociations(registry, wsdlPath, CommonConstants.DEPENDS);
                     for (Association association : associations) {
                         if(association.getSourcePath().equals(wsdlPath)){
                             dependeinciesList.add(association.getDestinationPath());
@@ -301,45 +334,57 @@ public class WsdlProcessor {
         return masterWSDLPath;
     }
 
-    private void addPolicyImports(RequestContext context) throws RegistryException {
+    /**
+     * Adds the policies referred by the WSDLs. Each policy is an import of its own, which is run
+     * once the import of the WSDL has ended, so that the policy is not imported under the lock of
+     * the WSDL.
+     */
+    private void addPolicyImports(final RequestContext context) throws RegistryException {
         /* storing policyReferences in to Registry if available in the WSDL */
         for (WSDLInfo wsdlInfo : wsdls.values()) {
             if(wsdlInfo.isExistPolicyReferences()){
                 Iterator iter = wsdlInfo.getPolicyDependencies().iterator();
                 while(iter.hasNext()){
-                    String policyURL = (String)iter.next();
-                    boolean lockAlreadyAcquired = !CommonUtil.isUpdateLockAvailable();
-                    CommonUtil.releaseUpdateLock();
-                    try{
-                        String path = policyURL.substring(policyURL.lastIndexOf(RegistryConstants.PATH_SEPARATOR) + 1);
-                        if(policyURL.lastIndexOf(RegistryConstants.PATH_SEPARATOR) > 0){
-                            String source = getSource(policyURL);
-                            GenericArtifactManager genericArtifactManager = new GenericArtifactManager(systemGovernanceRegistry, "uri");
-                            GenericArtifact policy = genericArtifactManager.newGovernanceArtifact(new QName(source));
-                            policy.setAttribute("overview_name", source);
-                            policy.setAttribute("overview_uri", policyURL);
-                            policy.setAttribute("overview_type", UriConstants.POLICY);
-                            genericArtifactManager.addGenericArtifact(policy);
-                            Resource artifactResource = registry.get(
-                                    RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH + GovernanceConstants.GOVERNANCE_ARTIFACT_INDEX_PATH);
-                            artifactResource.setProperty(policy.getId(),UriConstants.POLICY_LOCATION + source);
-                            registry.put(RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH +
-                                    GovernanceConstants.GOVERNANCE_ARTIFACT_INDEX_PATH, artifactResource); //TODO
-                            registry.addAssociation(getChrootedPolicyLocation(context.getRegistryContext()) + path,
-                                wsdlInfo.getProposedRegistryURL(), CommonConstants.USED_BY);
-                            registry.addAssociation(wsdlInfo.getProposedRegistryURL(),
-                                getChrootedPolicyLocation(context.getRegistryContext()) + path, CommonConstants.DEPENDS);
-                        }
-                    }finally {
-                        if (lockAlreadyAcquired) {
-                            CommonUtil.acquireUpdateLock();
-                        }
+                    final String policyURL = (String)iter.next();
+                    final String wsdlPath = wsdlInfo.getProposedRegistryURL();
+                    if(policyURL.lastIndexOf(RegistryConstants.PATH_SEPARATOR) > 0){
+                        session.addDeferredImport(new ImportSession.DeferredImport() {
+                            public void run() throws RegistryException {
+                                addPolicyImport(context, policyURL, wsdlPath);
+                            }
+                        });
                     }
                 }
             }
         }
     }
 
+    private void addPolicyImport(RequestContext context, String policyURL, String wsdlPath)
+            throws RegistryException {
+        boolean lockAlreadyAcquired = !CommonUtil.isUpdateLockAvailable();
+        CommonUtil.releaseUpdateLock();
+        try{
+            String path = policyURL.substring(policyURL.lastIndexOf(RegistryConstants.PATH_SEPARATOR) + 1);
+            String source = getSource(policyURL);
+            GenericArtifactManager genericArtifactManager = UriArtifactManagers.getManager(systemGovernanceRegistry);
+            GenericArtifact policy = genericArtifactManager.newGovernanceArtifact(new QName(source));
+            policy.setAttribute("overview_name", source);
+            policy.setAttribute("overview_uri", policyURL);
+            policy.setAttribute("overview_type", UriConstants.POLICY);
+            genericArtifactManager.addGenericArtifact(policy);
+            ImportSession.getSession().addIndexEntry(registry, policy.getId(),
+                    UriConstants.POLICY_LOCATION + source);
+            registry.addAssociation(getChrootedPolicyLocation(context.getRegistryContext()) + path,
+                wsdlPath, CommonConstants.USED_BY);
+            registry.addAssociation(wsdlPath,
+                getChrootedPolicyLocation(context.getRegistryContext()) + path, CommonConstants.DEPENDS);
+        }finally {
+            if (lockAlreadyAcquired) {
+                CommonUtil.acquireUpdateLock();
+            }
+        }
+    }
+
     /**
      * Get Master WSDL
      * @return  WSDLinfo object of the Master WSDL
@@ -355,30 +400,11 @@ public class WsdlProcessor {
 
     /**
      * Save associations to the registry if they do not exist.
-     * Execution time could be improved if registry provides a better way to check existing associations.
      *
      * @throws RegistryException Thrown in case a association cannot be saved
      */
     private void saveAssociations() throws RegistryException {
-        // until registry provides a functionality to check existing associations, this method will consume a LOT of time
-        for (Association association : associations) {
-            boolean isAssociationExist = false;
-            Association[] existingAssociations = registry.getAllAssociations(association.getSourcePath());
-            if (existingAssociations != null) {
-                for (Association currentAssociation : existingAssociations) {
-                    if (currentAssociation.getDestinationPath().equals(association.getDestinationPath()) &&
-                            currentAssociation.getAssociationType().equals(association.getAssociationType())) {
-                        isAssociationExist = true;
-                        break;
-                    }
-                }
-            }
-            if (!isAssociationExist) {
-                registry.addAssociation(association.getSourcePath(),
-                        association.getDestinationPath(),
-                        association.getAssociationType());
-            }
-        }
+        AssociationWriter.addMissingAssociations(registry, associations);
     }
 
     /**
@@ -429,9 +455,15 @@ public class WsdlProcessor {
                 InputSource inputSource = new InputSource(byteArrayInputStream);
                 wsdlDefinition = wsdlReader.readWSDL(null, inputSource);
             } else {
-                wsdlDefinition = wsdlReader.readWSDL(wsdlLocation);
+                // download the whole import graph concurrently before wsdl4j walks it
+                ImportPrefetcher.prefetch(session, wsdlLocation);
+                wsdlDefinition = wsdlReader.readWSDL(new CachedWSDLLocator(session, wsdlLocation));
             }
             originalDefinition = wsdlDefinition;
+        } catch (CachedWSDLLocator.FetchException e) {
+            String msg = "Could not evaluate WSDL Definition. " + e.getMessage();
+            log.error(msg, e);
+            throw new RegistryException(msg, e);
         } catch (WSDLException e) {
             String msg = "Could not evaluate WSDL Definition.";
             if (e.getCause() instanceof ConnectException ||
@@ -446,7 +478,7 @@ public class WsdlProcessor {
         }
 
         if (!isServiceImport) {
-              processedWSDLs.add(resourceName);
+              wsdlGraph.allocateName(resourceName, null);
         }
 
         Map map = null;
@@ -456,12 +488,38 @@ public class WsdlProcessor {
         // We perform validation only if there are no wsdl imports
         if (!skipValidation) {
             if (map != null && map.size() == 0) {
-                log.trace("Starting WSDL Validation");
-                wsdlValidationInfo = WSDLUtils.validateWSDL(context);
-                log.trace("Ending WSDL Validation");
-                log.trace("Starting WSI Validation");
-                wsiValidationInfo = WSDLUtils.validateWSI(context);
-                log.trace("Ending WSI Validation");
+                // validate the buffered document rather than letting the validators fetch it again
+                RequestContext validationContext =
+                        isPut ? context : session.createValidationContext(context, wsdlLocation);
+                // documents identical to those of an earlier import reuse its outcome
+                ValidationCache validationCache = ValidationCache.getInstance();
+                String validatedLocation = isPut ? null : wsdlLocation;
+                wsdlValidationInfo = validationCache.get(ValidationCache.WSDL_VALIDATOR,
+                        WSDLUtils.class, session, validatedLocation);
+                if (wsdlValidationInfo == null && deferValidation) {
+                    deferredValidations.add(DeferredValidation.newWSDLCheck(validationContext,
+                            validationCache.getKey(ValidationCache.WSDL_VALIDATOR, WSDLUtils.class,
+                                    session, validatedLocation)));
+                } else if (wsdlValidationInfo == null) {
+                    log.trace("Starting WSDL Validation");
+                    wsdlValidationInfo = WSDLUtils.validateWSDL(validationContext);
+                    log.trace("Ending WSDL Validation");
+                    validationCache.put(ValidationCache.WSDL_VALIDATOR, WSDLUtils.class, session,
+                            validatedLocation, wsdlValidationInfo);
+                }
+                wsiValidationInfo = validationCache.get(ValidationCache.WSI_VALIDATOR,
+                        WSDLUtils.class, session, validatedLocation);
+                if (wsiValidationInfo == null && deferValidation) {
+                    deferredValidations.add(DeferredValidation.newWSICheck(validationContext,
+                            validationCache.getKey(ValidationCache.WSI_VALIDATOR, WSDLUtils.class,
+                                    session, validatedLocation)));
+                } else if (wsiValidationInfo == null) {
+                    log.trace("Starting WSI Validation");
+                    wsiValidationInfo = WSDLUtils.validateWSI(validationContext);
+                    log.trace("Ending WSI Validation");
+                    validationCache.put(ValidationCache.WSI_VALIDATOR, WSDLUtils.class, session,
+                            validatedLocation, wsiValidationInfo);
+                }
 
             } else {
                 hasWSDLImports = true;
@@ -486,7 +544,7 @@ public class WsdlProcessor {
             Iterator iter = wsdlDefinition.getImports().values().iterator();
             Vector values;
             Import wsdlImport;
-            visitedWSDLs.add(wsdlDefinition.getDocumentBaseURI());
+            wsdlGraph.visit(wsdlDefinition.getDocumentBaseURI());
             CommonUtil.addImportedArtifact(new File(wsdlDefinition.getDocumentBaseURI()).toString());
             for (; iter.hasNext();) {
                 values = (Vector) iter.next();
@@ -502,7 +560,7 @@ public class WsdlProcessor {
                         continue;
                     }
                     wsdlInfo.getWSDLDependencies().add(innerDefinition.getDocumentBaseURI());
-                    if (!visitedWSDLs.contains(innerDefinition.getDocumentBaseURI())) {
+                    if (!wsdlGraph.isVisited(innerDefinition.getDocumentBaseURI())) {
                         evaluateWSDLsToDefinitionsRecursively(
                                 innerDefinition,
                                 evaluateImports,
@@ -533,8 +591,9 @@ public class WsdlProcessor {
             }
             else {
                 fileNameToSave = extractResourceFromURL(wsdlFileName, ".wsdl");
-                while (processedWSDLs.contains(fileNameToSave)) {
-                    fileNameToSave = extractResourceFromURL(wsdlFileName, (++i) + ".wsdl");
+                while (wsdlGraph.isNameAllocated(fileNameToSave)) {
+                    fileNameToSave = extractResourceFromURL(wsdlFileName,
+                            wsdlGraph.nextNameIndex() + ".wsdl");
                 }
             }
             wsdlInfo.setOriginalURL(baseURI);
@@ -549,7 +608,7 @@ public class WsdlProcessor {
         wsdlInfo.setWSDLDefinition(wsdlDefinition);
         wsdlInfo.setProposedRegistryURL(fileNameToSave);
         wsdls.put(baseURI, wsdlInfo);
-        processedWSDLs.add(fileNameToSave);
+        wsdlGraph.allocateName(fileNameToSave, wsdlInfo);
     }
 
     /**
@@ -663,8 +722,8 @@ public class WsdlProcessor {
                 // importedResourceName (in some path)
                 String wsdlPath = wsdlInfo.getProposedRegistryURL();
                 Resource wsdlResource;
-                if (metaDataResource != null && registry.resourceExists(wsdlPath)) {
-                    wsdlResource = registry.get(wsdlPath);
+                if (metaDataResource != null && readCache.resourceExists(registry, wsdlPath)) {
+                    wsdlResource = readCache.get(registry, wsdlPath);
                 } else {
                     wsdlResource = new ResourceImpl();
                     if (metaDataResource != null) {
@@ -687,16 +746,19 @@ public class WsdlProcessor {
                             }
                         }
                     }
+                    copyAllParameters(wsdlPath, wsdlResource);
                 }
-
-                copyAllParameters(wsdlPath, wsdlResource);
                 // getting the parameters
                 masterWSDLPath = addProperties(masterWSDLPath, wsdlInfo, wsdlDefinition, wsdlResourceContent, wsdlPath, wsdlResource);
                 if (metaDataResource != null) {
                     wsdlResource.setDescription(metaDataResource.getDescription());
                 }
-                boolean newWSDLUpload = !registry.resourceExists(wsdlPath);
-                saveResource(context, wsdlInfo.getOriginalURL(), wsdlPath, wsdlResource, true);
+                boolean newWSDLUpload = !readCache.resourceExists(registry, wsdlPath);
+                String artifactPath =
+                        saveResource(context, wsdlInfo.getOriginalURL(), wsdlPath, wsdlResource, true);
+                if (wsdlInfo.isMasterWSDL()) {
+                    masterArtifactPath = artifactPath;
+                }
                 if (systemRegistry != null) {
                     org.wso2.carbon.registry.extensions.handlers.utils.EndpointUtils.saveEndpointsFromWSDL(wsdlPath, wsdlResource, registry,
                             systemRegistry);
@@ -789,9 +851,9 @@ public class WsdlProcessor {
     }
 
     private void copyAllParameters(String wsdlPath, Resource wsdlResource) throws RegistryException {
-    if(registry.resourceExists(wsdlPath)){
-                    // we are copying all the properties, rather than using the exisint pointer
-                    Resource oldWsdlResource = registry.get(wsdlPath);
+    if(readCache.resourceExists(registry, wsdlPath)){
+                    // a new resource replacing a stored one keeps the properties of the stored one
+                    Resource oldWsdlResource = readCache.get(registry, wsdlPath);
                     Properties properties = oldWsdlResource.getProperties();
                     for (Map.Entry<Object, Object> e : properties.entrySet()) {
                         if (e.getValue() instanceof String) {
@@ -819,8 +881,8 @@ public class WsdlProcessor {
                 // importedResourceName (in some path)
                 String wsdlPath = wsdlInfo.getProposedRegistryURL();
                 Resource wsdlResource;
-                if (metaDataResource != null && registry.resourceExists(wsdlPath)) {
-                    wsdlResource = registry.get(wsdlPath);
+                if (metaDataResource != null && readCache.resourceExists(registry, wsdlPath)) {
+                    wsdlResource = readCache.get(registry, wsdlPath);
                 } else {
                     wsdlResource = new ResourceImpl();
                     if (metaDataResource != null) {
@@ -843,30 +905,21 @@ public class WsdlProcessor {
                             }
                         }
                     }
-                }
-
-                if(registry.resourceExists(wsdlPath)){
-                    // we are copying all the properties, rather than using the exisint pointer
-                    Resource oldWsdlResource = registry.get(wsdlPath);
-                    Properties properties = oldWsdlResource.getProperties();
-                    for (Map.Entry<Object, Object> e : properties.entrySet()) {
-                        if (e.getValue() instanceof String) {
-                            wsdlResource.setProperty((String) e.getKey(), (String) e.getValue());
-                        } else {
-                            wsdlResource.setProperty((String) e.getKey(),
-                                    (List<String>) e.getValue());
-                        }
-                    }
+                    copyAllParameters(wsdlPath, wsdlResource);
                 }
                 // getting the parameters
                 masterWSDLPath = addProperties(masterWSDLPath, wsdlInfo, wsdlDefinition, wsdlResourceContent, wsdlPath, wsdlResource);
                 if (metaDataResource != null) {
                     wsdlResource.setDescription(metaDataResource.getDescription());
                 }
-                boolean newWSDLUpload = !registry.resourceExists(wsdlPath);
-                saveResource(context, wsdlInfo.getOriginalURL(), wsdlPath, wsdlResource, true);
+                boolean newWSDLUpload = !readCache.resourceExists(registry, wsdlPath);
+                String artifactPath =
+                        saveResource(context, wsdlInfo.getOriginalURL(), wsdlPath, wsdlResource, true);
+                if (wsdlInfo.isMasterWSDL()) {
+                    masterArtifactPath = artifactPath;
+                }
                 if (systemRegistry != null) {
-                    EndpointUtils.saveEndpointsFromWSDL(wsdlPath, wsdlResource, registry,
+                    EndpointUtils.saveEndpointsFromWSDL(wsdlPath, wsdlDefinition, registry,
                             systemRegistry,endpointEnvironment,dependenciesList,version);
                 }
 
@@ -925,8 +978,13 @@ public class WsdlProcessor {
     }
 
 
-    private void saveResource(RequestContext context, String url, String path, Resource resource,
-                              boolean isWSDL)
+    /**
+     * Saves the given resource, and adds the artifact of a WSDL.
+     *
+     * @return the path of the artifact added for a WSDL, or null.
+     */
+    private String saveResource(RequestContext context, String url, String path, Resource resource,
+                                boolean isWSDL)
             throws RegistryException {
         log.trace("Started saving resource");
 
@@ -938,7 +996,7 @@ public class WsdlProcessor {
             resource.setProperty(CommonConstants.ARTIFACT_ID_PROP_KEY, artifactId);
         }
         if (systemRegistry != null) {
-            CommonUtil.addGovernanceArtifactEntryWithAbsoluteValues(systemRegistry, artifactId, path);
+            session.addIndexEntryWithAbsolutePath(systemRegistry, artifactId, path);
         }
 
         String relativeArtifactPath = RegistryUtils.getRelativePath(registry.getRegistryContext(), path);
@@ -949,25 +1007,24 @@ public class WsdlProcessor {
             initialized due to wsdl addition
          */
         resource.setProperty("registry.WSDLImport","true");
+        String artifactPath = null;
         if (!isWSDL) {
-            registry.put(path, resource);
+            readCache.put(registry, path, resource);
         } else {
             String source = getSource(url);
-            GenericArtifactManager genericArtifactManager = new GenericArtifactManager(systemGovernanceRegistry, "uri");
+            GenericArtifactManager genericArtifactManager = UriArtifactManagers.getManager(systemGovernanceRegistry);
             GenericArtifact wsdl = genericArtifactManager.newGovernanceArtifact(new QName(source));
             wsdl.setAttribute("overview_name", source);
             wsdl.setAttribute("overview_uri", url);
             wsdl.setAttribute("overview_type", UriConstants.WSDL);
             genericArtifactManager.addGenericArtifact(wsdl);
-            Resource artifactResource = registry.get(
-                    RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH + GovernanceConstants.GOVERNANCE_ARTIFACT_INDEX_PATH);
-            artifactResource.setProperty(wsdl.getId(),UriConstants.WSDL_LOCATION + source);
-            registry.put(RegistryConstants.GOVERNANCE_REGISTRY_BASE_PATH +
-                    GovernanceConstants.GOVERNANCE_ARTIFACT_INDEX_PATH, artifactResource); //TODO
+            session.addIndexEntry(registry, wsdl.getId(), UriConstants.WSDL_LOCATION + source);
+            artifactPath = wsdl.getPath();
         }
 
         ((ResourceImpl)resource).setPath(relativeArtifactPath);
         log.trace("Finished saving resource");
+        return artifactPath;
     }
 
     /**
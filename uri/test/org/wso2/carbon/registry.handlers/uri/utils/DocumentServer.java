@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local HTTP server for the tests, serving documents with a Last-Modified validator and
+ * answering conditional requests for unmodified documents with 304.
+ */
+class DocumentServer {
+
+    private final HttpServer server;
+    private final Map<String, Document> documents = new ConcurrentHashMap<String, Document>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+
+    private static class Document {
+        private final byte[] content;
+        private final String lastModified;
+
+        private Document(byte[] content, String lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+
+    DocumentServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                Document document = documents.get(exchange.getRequestURI().getPath());
+                if (document == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Last-Modified", document.lastModified);
+                if (document.lastModified.equals(
+                        exchange.getRequestHeaders().getFirst("If-Modified-Since"))) {
+                    notModifiedResponses.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(200, document.content.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                try {
+                    outputStream.write(document.content);
+                } finally {
+                    outputStream.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Serves the given content at the given path, replacing the document served there.
+     *
+     * @param path         the path, starting with a slash.
+     * @param content      the content.
+     * @param lastModified the value of the Last-Modified header.
+     * @return the URL of the document.
+     */
+    String serve(String path, String content, String lastModified) throws IOException {
+        documents.put(path, new Document(content.getBytes("UTF-8"), lastModified));
+        return getURL(path);
+    }
+
+    String getURL(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    int getNotModifiedResponses() {
+        return notModifiedResponses.get();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.ws.commons.schema.XmlSchema;
+import org.apache.ws.commons.schema.XmlSchemaCollection;
+import org.apache.ws.commons.schema.XmlSchemaExternal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ParsedSchemaCacheTest {
+
+    private static final String IMPORTING_SCHEMA =
+            "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:a\">" +
+            "<xs:import namespace=\"urn:b\" schemaLocation=\"b.xsd\"/></xs:schema>";
+    private static final String IMPORTED_SCHEMA =
+            "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:b\"/>";
+    private static final String MODIFIED_SCHEMA =
+            "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:b\">" +
+            "<xs:simpleType name=\"T\"><xs:restriction base=\"xs:string\"/></xs:simpleType>" +
+            "</xs:schema>";
+    private static final String MONDAY = "Mon, 01 Oct 2012 10:00:00 GMT";
+    private static final String TUESDAY = "Tue, 02 Oct 2012 10:00:00 GMT";
+
+    private DocumentServer server;
+    private File cacheDirectory;
+    private ParsedSchemaCache cache = ParsedSchemaCache.getInstance();
+    private String importingURL;
+    private String importedURL;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new DocumentServer();
+        cacheDirectory = File.createTempFile("uri-fetch-cache", "");
+        FileUtils.forceDelete(cacheDirectory);
+        UriFetchCache.getInstance().setCacheDirectory(cacheDirectory.getAbsolutePath());
+        importingURL = server.serve("/a.xsd", IMPORTING_SCHEMA, MONDAY);
+        importedURL = server.serve("/b.xsd", IMPORTED_SCHEMA, MONDAY);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        FileUtils.deleteDirectory(cacheDirectory);
+    }
+
+    @Test
+    public void testSchemaIsLeasedToOneImportAtATime() throws IOException {
+        XmlSchema schema = addSchema("testSchemaIsLeasedToOneImportAtATime");
+
+        ImportSession session = ImportSession.begin();
+        try {
+            String contentHash = session.getDocument(importingURL).getContentHash();
+            assertSame(schema, cache.lease(session, "testSchemaIsLeasedToOneImportAtATime",
+                    contentHash));
+            assertNull(cache.lease(session, "testSchemaIsLeasedToOneImportAtATime", contentHash));
+        } finally {
+            ImportSession.end();
+        }
+
+        session = ImportSession.begin();
+        try {
+            String contentHash = session.getDocument(importingURL).getContentHash();
+            assertSame(schema, cache.lease(session, "testSchemaIsLeasedToOneImportAtATime",
+                    contentHash));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    @Test
+    public void testLocationsAreRestoredWhenTheLeaseEnds() throws IOException {
+        XmlSchema schema;
+        ImportSession session = ImportSession.begin();
+        try {
+            schema = parse(session, "testLocationsAreRestoredWhenTheLeaseEnds");
+            // the importers point the imports at the stored schemas.
+            getImport(schema).setSchemaLocation("../b/b.xsd");
+        } finally {
+            ImportSession.end();
+        }
+        assertEquals("b.xsd", getImport(schema).getSchemaLocation());
+    }
+
+    @Test
+    public void testSchemaWithAModifiedImportIsNotLeased() throws IOException {
+        addSchema("testSchemaWithAModifiedImportIsNotLeased");
+        server.serve("/b.xsd", MODIFIED_SCHEMA, TUESDAY);
+
+        ImportSession session = ImportSession.begin();
+        try {
+            String contentHash = session.getDocument(importingURL).getContentHash();
+            assertNull(cache.lease(session, "testSchemaWithAModifiedImportIsNotLeased",
+                    contentHash));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    @Test
+    public void testDetachedSessionsAreNotCached() throws IOException {
+        ImportSession session = ImportSession.getSession();
+        String contentHash = session.getDocument(importingURL).getContentHash();
+        XmlSchema schema = new XmlSchemaCollection().read(new InputSource(importingURL), null);
+        Map<String, String> documentHashes = new HashMap<String, String>();
+        documentHashes.put(importingURL, contentHash);
+        cache.add(session, "testDetachedSessionsAreNotCached", contentHash, schema, documentHashes);
+
+        session = ImportSession.begin();
+        try {
+            assertNull(cache.lease(session, "testDetachedSessionsAreNotCached", contentHash));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    /**
+     * Parses the importing schema in an import session of its own, leaving it cached.
+     */
+    private XmlSchema addSchema(String key) throws IOException {
+        ImportSession session = ImportSession.begin();
+        try {
+            return parse(session, key);
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    private XmlSchema parse(ImportSession session, String key) throws IOException {
+        String contentHash = session.getDocument(importingURL).getContentHash();
+        Map<String, String> documentHashes = new HashMap<String, String>();
+        documentHashes.put(importingURL, contentHash);
+        documentHashes.put(importedURL, session.getDocument(importedURL).getContentHash());
+        XmlSchema schema = new XmlSchemaCollection().read(new InputSource(importingURL), null);
+        cache.add(session, key, contentHash, schema, documentHashes);
+        return schema;
+    }
+
+    private static XmlSchemaExternal getImport(XmlSchema schema) {
+        return (XmlSchemaExternal) schema.getIncludes().getItem(0);
+    }
+}
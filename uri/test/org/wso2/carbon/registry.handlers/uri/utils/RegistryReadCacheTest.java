@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.carbon.registry.core.Association;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.ResourceImpl;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RegistryReadCacheTest {
+
+    private static final String PATH = "/trunk/schemas/a.xsd";
+    private static final String OTHER_PATH = "/trunk/wsdls/a.wsdl";
+
+    private RegistryReadCache cache;
+    private Map<String, Resource> resources;
+    private Map<String, List<Association>> associations;
+
+    /**
+     * Counts the calls made through a registry.
+     */
+    private static class Calls {
+        private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        private void add(String method) {
+            Integer count = counts.get(method);
+            counts.put(method, count != null ? count + 1 : 1);
+        }
+
+        private int get(String method) {
+            Integer count = counts.get(method);
+            return count != null ? count : 0;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        cache = new RegistryReadCache();
+        resources = new HashMap<String, Resource>();
+        associations = new HashMap<String, List<Association>>();
+    }
+
+    @Test
+    public void testReadsAreCached() throws RegistryException {
+        Calls calls = new Calls();
+        Registry registry = newRegistry(calls);
+        resources.put(PATH, new ResourceImpl());
+
+        assertFalse(cache.resourceExists(registry, OTHER_PATH));
+        assertFalse(cache.resourceExists(registry, OTHER_PATH));
+        Resource resource = cache.get(registry, PATH);
+        assertSame(resource, cache.get(registry, PATH));
+        assertTrue(cache.resourceExists(registry, PATH));
+
+        assertEquals(1, calls.get("resourceExists"));
+        assertEquals(1, calls.get("get"));
+    }
+
+    @Test
+    public void testPutDropsTheEntriesOfThePath() throws RegistryException {
+        Calls calls = new Calls();
+        Registry registry = newRegistry(calls);
+        assertFalse(cache.resourceExists(registry, PATH));
+
+        Resource resource = new ResourceImpl();
+        cache.put(registry, PATH, resource);
+        assertTrue(cache.resourceExists(registry, PATH));
+        // the stored resource is read again, rather than the one that was written.
+        assertNotSame(resource, cache.get(registry, PATH));
+
+        assertEquals(1, calls.get("resourceExists"));
+        assertEquals(1, calls.get("get"));
+    }
+
+    @Test
+    public void testRegistriesAreKeptApart() throws RegistryException {
+        Calls calls = new Calls();
+        Calls otherCalls = new Calls();
+        Registry registry = newRegistry(calls);
+        Registry otherRegistry = newRegistry(otherCalls);
+
+        assertFalse(cache.resourceExists(registry, PATH));
+        assertFalse(cache.resourceExists(otherRegistry, PATH));
+        assertEquals(1, calls.get("resourceExists"));
+        assertEquals(1, otherCalls.get("resourceExists"));
+
+        // a write through one registry drops what the other one read of the same path.
+        cache.put(registry, PATH, new ResourceImpl());
+        assertTrue(cache.resourceExists(otherRegistry, PATH));
+        assertEquals(2, otherCalls.get("resourceExists"));
+    }
+
+    @Test
+    public void testAddedAssociationsAreReadAgain() throws RegistryException {
+        Calls calls = new Calls();
+        Registry registry = newRegistry(calls);
+
+        assertEquals(0, cache.getAllAssociations(registry, PATH).length);
+        assertEquals(0, cache.getAllAssociations(registry, PATH).length);
+        assertEquals(0, cache.getAllAssociations(registry, OTHER_PATH).length);
+        assertEquals(2, calls.get("getAllAssociations"));
+
+        cache.addAssociation(registry, PATH, OTHER_PATH, "depends");
+        assertEquals(1, cache.getAllAssociations(registry, PATH).length);
+        assertEquals(1, cache.getAllAssociations(registry, OTHER_PATH).length);
+        assertEquals(4, calls.get("getAllAssociations"));
+    }
+
+    @Test
+    public void testClearDropsAllEntries() throws RegistryException {
+        Calls calls = new Calls();
+        Registry registry = newRegistry(calls);
+
+        cache.resourceExists(registry, PATH);
+        cache.clear();
+        cache.resourceExists(registry, PATH);
+        assertEquals(2, calls.get("resourceExists"));
+    }
+
+    /**
+     * Returns a registry over the resources and associations of this test, which counts the calls
+     * made through it.
+     */
+    private Registry newRegistry(final Calls calls) {
+        return (Registry) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {Registry.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        calls.add(name);
+                        if ("resourceExists".equals(name)) {
+                            return resources.containsKey(args[0]);
+                        } else if ("get".equals(name)) {
+                            // each read returns a copy, as a registry does.
+                            return resources.containsKey(args[0]) ? new ResourceImpl() : null;
+                        } else if ("put".equals(name)) {
+                            resources.put((String) args[0], (Resource) args[1]);
+                            return args[0];
+                        } else if ("getAllAssociations".equals(name)) {
+                            List<Association> pathAssociations = associations.get(args[0]);
+                            return pathAssociations != null ?
+                                    pathAssociations.toArray(new Association[pathAssociations.size()]) :
+                                    new Association[0];
+                        } else if ("addAssociation".equals(name)) {
+                            Association association = new Association((String) args[0],
+                                    (String) args[1], (String) args[2]);
+                            addAssociation((String) args[0], association);
+                            addAssociation((String) args[1], association);
+                            return null;
+                        } else if ("hashCode".equals(name)) {
+                            return System.identityHashCode(proxy);
+                        } else if ("equals".equals(name)) {
+                            return proxy == args[0];
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+    private void addAssociation(String path, Association association) {
+        List<Association> pathAssociations = associations.get(path);
+        if (pathAssociations == null) {
+            pathAssociations = new ArrayList<Association>();
+            associations.put(path, pathAssociations);
+        }
+        pathAssociations.add(association);
+    }
+}
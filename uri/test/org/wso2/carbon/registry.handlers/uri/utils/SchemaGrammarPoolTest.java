@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.xerces.impl.xs.XSDDescription;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.carbon.registry.extensions.handlers.utils.WSDLUtils;
+import org.wso2.carbon.registry.extensions.utils.WSDLValidationInfo;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SchemaGrammarPoolTest {
+
+    private static final String IMPORTING_SCHEMA =
+            "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:a\" " +
+            "xmlns:b=\"urn:b\"><xs:import namespace=\"urn:b\" schemaLocation=\"b.xsd\"/>" +
+            "<xs:element name=\"e\" type=\"b:T\"/></xs:schema>";
+    private static final String IMPORTED_SCHEMA =
+            "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:b\">" +
+            "<xs:simpleType name=\"T\"><xs:restriction base=\"xs:string\"/></xs:simpleType>" +
+            "</xs:schema>";
+    private static final String MODIFIED_SCHEMA =
+            "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:b\">" +
+            "<xs:simpleType name=\"T\"><xs:restriction base=\"xs:int\"/></xs:simpleType>" +
+            "</xs:schema>";
+    private static final String INVALID_SCHEMA =
+            "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:c\" " +
+            "xmlns:b=\"urn:b\"><xs:import namespace=\"urn:b\" schemaLocation=\"b.xsd\"/>" +
+            "<xs:element name=\"e\" type=\"b:Missing\"/></xs:schema>";
+    private static final String MONDAY = "Mon, 01 Oct 2012 10:00:00 GMT";
+    private static final String TUESDAY = "Tue, 02 Oct 2012 10:00:00 GMT";
+
+    private DocumentServer server;
+    private File cacheDirectory;
+    private String importingURL;
+    private String importedURL;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new DocumentServer();
+        cacheDirectory = File.createTempFile("uri-fetch-cache", "");
+        FileUtils.forceDelete(cacheDirectory);
+        UriFetchCache.getInstance().setCacheDirectory(cacheDirectory.getAbsolutePath());
+        importingURL = server.serve("/a.xsd", IMPORTING_SCHEMA, MONDAY);
+        importedURL = server.serve("/b.xsd", IMPORTED_SCHEMA, MONDAY);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        FileUtils.deleteDirectory(cacheDirectory);
+    }
+
+    @Test
+    public void testGrammarsOfAValidSchemaArePooled() throws IOException {
+        int tenantId = 1001;
+        assertEquals(WSDLUtils.VALID, validate(tenantId, importingURL).getStatus());
+
+        ImportSession session = ImportSession.begin();
+        try {
+            SchemaGrammarPool.Stage stage = SchemaGrammarPool.getPool(tenantId).stage(session);
+            Grammar importedGrammar = stage.retrieveGrammar(describe("urn:b", importedURL));
+            assertNotNull(importedGrammar);
+            assertNotNull(stage.retrieveGrammar(describe("urn:a", importingURL)));
+            // the pool of another tenant is kept apart.
+            assertNull(SchemaGrammarPool.getPool(tenantId + 1).stage(session)
+                    .retrieveGrammar(describe("urn:b", importedURL)));
+
+            // a later validation is handed the pooled grammar.
+            assertSame(importedGrammar, SchemaGrammarPool.getPool(tenantId).stage(session)
+                    .retrieveGrammar(describe("urn:b", importedURL)));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    @Test
+    public void testGrammarsOfAnInvalidSchemaAreNotPooled() throws IOException {
+        int tenantId = 1003;
+        String invalidURL = server.serve("/c.xsd", INVALID_SCHEMA, MONDAY);
+        assertEquals(WSDLUtils.INVALID, validate(tenantId, invalidURL).getStatus());
+
+        ImportSession session = ImportSession.begin();
+        try {
+            SchemaGrammarPool.Stage stage = SchemaGrammarPool.getPool(tenantId).stage(session);
+            assertNull(stage.retrieveGrammar(describe("urn:b", importedURL)));
+            assertNull(stage.retrieveGrammar(describe("urn:c", invalidURL)));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    @Test
+    public void testGrammarOfAModifiedDocumentIsDropped() throws IOException {
+        int tenantId = 1004;
+        assertEquals(WSDLUtils.VALID, validate(tenantId, importingURL).getStatus());
+        server.serve("/b.xsd", MODIFIED_SCHEMA, TUESDAY);
+
+        ImportSession session = ImportSession.begin();
+        try {
+            SchemaGrammarPool.Stage stage = SchemaGrammarPool.getPool(tenantId).stage(session);
+            assertNull(stage.retrieveGrammar(describe("urn:b", importedURL)));
+            // the importing grammar was compiled against the old document as well.
+            assertNull(stage.retrieveGrammar(describe("urn:a", importingURL)));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    private static WSDLValidationInfo validate(int tenantId, String url) throws IOException {
+        ImportSession session = ImportSession.begin();
+        try {
+            return SchemaGrammarValidator.validate(session, tenantId,
+                    session.getXMLInputSource(url));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    private static XSDDescription describe(String namespace, String location) {
+        XSDDescription description = new XSDDescription();
+        description.setNamespace(namespace);
+        description.setExpandedSystemId(location);
+        return description;
+    }
+}
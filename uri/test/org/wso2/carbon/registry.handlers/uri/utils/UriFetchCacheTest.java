@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UriFetchCacheTest {
+
+    private static final String SCHEMA = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\"/>";
+    private static final String OTHER_SCHEMA =
+            "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:b\"/>";
+    private static final String MONDAY = "Mon, 01 Oct 2012 10:00:00 GMT";
+    private static final String TUESDAY = "Tue, 02 Oct 2012 10:00:00 GMT";
+
+    private DocumentServer server;
+    private File cacheDirectory;
+    private UriFetchCache cache = UriFetchCache.getInstance();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new DocumentServer();
+        cacheDirectory = File.createTempFile("uri-fetch-cache", "");
+        assertTrue(cacheDirectory.delete());
+        cache.setCacheDirectory(cacheDirectory.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        FileUtils.deleteDirectory(cacheDirectory);
+    }
+
+    @Test
+    public void testStoreAndRevalidate() throws IOException {
+        String url = server.serve("/a.xsd", SCHEMA, MONDAY);
+        RemoteDocument fetched = cache.fetch(url);
+        assertEquals(1, countFiles(".meta"));
+        assertEquals(1, countFiles(".content"));
+
+        RemoteDocument revalidated = cache.fetch(url);
+        assertEquals(1, server.getNotModifiedResponses());
+        assertArrayEquals(fetched.getContent(), revalidated.getContent());
+        assertEquals(fetched.getContentHash(), revalidated.getContentHash());
+    }
+
+    @Test
+    public void testChangedValidatorsKeepTheStoredEntry() throws IOException {
+        String url = server.serve("/a.xsd", SCHEMA, MONDAY);
+        cache.fetch(url);
+        server.serve("/a.xsd", SCHEMA, TUESDAY);
+        cache.fetch(url);
+        assertEquals(1, countFiles(".meta"));
+        assertEquals(1, countFiles(".content"));
+
+        // a new cache over the same directory revalidates with the stored validators.
+        cache.setCacheDirectory(cacheDirectory.getAbsolutePath());
+        RemoteDocument document = cache.fetch(url);
+        assertEquals(1, server.getNotModifiedResponses());
+        assertEquals(SCHEMA, new String(document.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void testChangedContentReplacesTheStoredContent() throws IOException {
+        String url = server.serve("/a.xsd", SCHEMA, MONDAY);
+        String oldHash = cache.fetch(url).getContentHash();
+        server.serve("/a.xsd", OTHER_SCHEMA, TUESDAY);
+        String newHash = cache.fetch(url).getContentHash();
+
+        assertFalse(new File(cacheDirectory, oldHash + ".content").exists());
+        assertTrue(new File(cacheDirectory, newHash + ".content").exists());
+        assertEquals(1, countFiles(".meta"));
+    }
+
+    @Test
+    public void testSharedContentIsKeptWhileReferenced() throws IOException {
+        String firstURL = server.serve("/a.xsd", SCHEMA, MONDAY);
+        String secondURL = server.serve("/copy/a.xsd", SCHEMA, MONDAY);
+        String hash = cache.fetch(firstURL).getContentHash();
+        cache.fetch(secondURL);
+        assertEquals(2, countFiles(".meta"));
+        assertEquals(1, countFiles(".content"));
+
+        server.serve("/a.xsd", OTHER_SCHEMA, TUESDAY);
+        cache.fetch(firstURL);
+        assertTrue(new File(cacheDirectory, hash + ".content").exists());
+        assertEquals(2, countFiles(".content"));
+    }
+
+    private int countFiles(String suffix) {
+        int count = 0;
+        File[] files = cacheDirectory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            if (files[i].getName().endsWith(suffix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
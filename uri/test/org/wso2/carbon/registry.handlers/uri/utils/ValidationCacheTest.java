@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2012, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.registry.handlers.uri.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.carbon.registry.extensions.utils.WSDLValidationInfo;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ValidationCacheTest {
+
+    private static final String SCHEMA = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\"/>";
+    private static final String OTHER_SCHEMA =
+            "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:b\"/>";
+    private static final String MONDAY = "Mon, 01 Oct 2012 10:00:00 GMT";
+    private static final String TUESDAY = "Tue, 02 Oct 2012 10:00:00 GMT";
+
+    private DocumentServer server;
+    private File cacheDirectory;
+    private ValidationCache cache = ValidationCache.getInstance();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new DocumentServer();
+        cacheDirectory = File.createTempFile("uri-fetch-cache", "");
+        FileUtils.forceDelete(cacheDirectory);
+        UriFetchCache.getInstance().setCacheDirectory(cacheDirectory.getAbsolutePath());
+        cache.setMaxSize(1000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        FileUtils.deleteDirectory(cacheDirectory);
+    }
+
+    @Test
+    public void testOutcomeIsCachedForTheValidatedLocation() throws IOException {
+        String firstURL = server.serve("/a.xsd", SCHEMA, MONDAY);
+        String secondURL = server.serve("/b.xsd", SCHEMA, MONDAY);
+        ImportSession session = ImportSession.begin();
+        try {
+            session.getDocument(firstURL);
+            session.getDocument(secondURL);
+            cache.put(ValidationCache.SCHEMA_VALIDATOR, getClass(), session, firstURL,
+                    newOutcome("invalid", "missing type"));
+
+            WSDLValidationInfo outcome = cache.get(ValidationCache.SCHEMA_VALIDATOR, getClass(),
+                    session, firstURL);
+            assertNotNull(outcome);
+            assertEquals("invalid", outcome.getStatus());
+            assertEquals("missing type", outcome.getValidationMessages().get(0));
+            assertNull(cache.get(ValidationCache.SCHEMA_VALIDATOR, getClass(), session,
+                    secondURL));
+            assertNull(cache.get(ValidationCache.WSDL_VALIDATOR, getClass(), session, firstURL));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    @Test
+    public void testModifiedDocumentIsValidatedAgain() throws IOException {
+        String url = server.serve("/a.xsd", SCHEMA, MONDAY);
+        ImportSession session = ImportSession.begin();
+        try {
+            session.getDocument(url);
+            cache.put(ValidationCache.SCHEMA_VALIDATOR, getClass(), session, url,
+                    newOutcome("valid", null));
+        } finally {
+            ImportSession.end();
+        }
+
+        server.serve("/a.xsd", OTHER_SCHEMA, TUESDAY);
+        session = ImportSession.begin();
+        try {
+            session.getDocument(url);
+            assertNull(cache.get(ValidationCache.SCHEMA_VALIDATOR, getClass(), session, url));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    @Test
+    public void testKeyCarriesTheVersionOfTheValidator() throws IOException {
+        String url = server.serve("/a.xsd", SCHEMA, MONDAY);
+        ImportSession session = ImportSession.begin();
+        try {
+            session.getDocument(url);
+            // the test classes declare no implementation version.
+            String key = cache.getKey(ValidationCache.SCHEMA_VALIDATOR, getClass(), session, url);
+            assertNotNull(key);
+            assertFalse(key.equals(cache.getKey(ValidationCache.SCHEMA_VALIDATOR,
+                    DocumentServer.class, session, url)));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    @Test
+    public void testLocalDocumentsAreNotCached() {
+        ImportSession session = ImportSession.begin();
+        try {
+            assertNull(cache.getKey(ValidationCache.SCHEMA_VALIDATOR, getClass(), session,
+                    "file:/tmp/a.xsd"));
+        } finally {
+            ImportSession.end();
+        }
+    }
+
+    private static WSDLValidationInfo newOutcome(String status, String message) {
+        WSDLValidationInfo validationInfo = new WSDLValidationInfo();
+        validationInfo.setStatus(status);
+        if (message != null) {
+            validationInfo.addValidationMessage(message);
+        }
+        return validationInfo;
+    }
+}